@@ -17,6 +17,7 @@ package io.github.gonalez.zplayersync;
 
 import io.github.gonalez.zplayersync.data.PlayerDataReadWriter;
 import io.github.gonalez.zplayersync.data.PlayerDataApi;
+import io.github.gonalez.zplayersync.data.PlayerValueRegistry;
 import io.github.gonalez.zplayersync.serializer.ObjectSerializer;
 
 // TODO: javadoc
@@ -29,6 +30,11 @@ public abstract class PlayerSyncModule {
     return null;
   }
 
+  /** @return the registry assigning the ids of the value apis set up into this module. */
+  public PlayerValueRegistry getValueRegistry() {
+    return null;
+  }
+
   /** Sets up the given value api into this module. */
   public <T> void initializePlayerValueApi(PlayerDataApi<T> valueApi) {}
 
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executors backed by the Bukkit scheduler, to be used with the asynchronous methods of
+ * {@link PlayerDataReadWriter}.
+ */
+public final class BukkitExecutors {
+  private BukkitExecutors() {}
+
+  /**
+   * @return an executor running tasks on the main thread of the server. Tasks submitted from the
+   *     main thread are run right away, tasks submitted from other threads are run on the next
+   *     tick. Values read by {@link PlayerDataReadWriter#readAsync} must be applied to the player
+   *     through this executor, e.g. with
+   *     {@code thenAcceptAsync(apply, BukkitExecutors.mainThread(plugin))}.
+   */
+  public static Executor mainThread(Plugin plugin) {
+    checkNotNull(plugin);
+    return command -> {
+      if (Bukkit.isPrimaryThread()) {
+        command.run();
+      } else {
+        plugin.getServer().getScheduler().runTask(plugin, command);
+      }
+    };
+  }
+
+  /** @return an executor running tasks on the asynchronous task threads of the Bukkit scheduler. */
+  public static Executor async(Plugin plugin) {
+    checkNotNull(plugin);
+    return command -> plugin.getServer().getScheduler().runTaskAsynchronously(plugin, command);
+  }
+}
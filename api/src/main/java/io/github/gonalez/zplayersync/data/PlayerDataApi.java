@@ -26,17 +26,36 @@ public interface PlayerDataApi<VALUE_TYPE> {
 
   VALUE_TYPE read(Player input);
 
+  /**
+   * Reads a copy of the value of the player that is not modified afterwards, so it can be
+   * serialized outside the main thread. By default, this is the same as {@link #read(Player)},
+   * values that are mutable, like inventories, must override this method to copy them.
+   */
+  default VALUE_TYPE snapshot(Player input) {
+    return read(input);
+  }
+
   void set(Player input,  VALUE_TYPE value_type);
 
   /**
    * Applies a new value to the player, unlike {@link #set(Player, Object)} is not
    * necessary to explicitly set the value. By default, this method throws an,
    * {@link UnsupportedOperationException}.
+   *
+   * @deprecated values read for a player are applied with {@link #set(Player, Object)}, see
+   *     {@link PlayerSnapshot#apply}, this method is no longer called.
    */
+  @Deprecated
   default void set(Player input) {
     throw new UnsupportedOperationException("Not implemented");
   }
 
+  /**
+   * @return whether this api holds its own value, applied with {@link #set(Player)}.
+   * @deprecated values read for a player are held by a {@link PlayerSnapshot} instead, this
+   *     method is no longer called.
+   */
+  @Deprecated
   default boolean isStandalone() {
     return false;
   }
@@ -15,15 +15,155 @@
  */
 package io.github.gonalez.zplayersync.data;
 
-import com.google.common.collect.ImmutableList;
+import static com.google.common.base.Preconditions.checkArgument;
 
+import com.google.common.collect.ImmutableSet;
+import io.github.gonalez.zplayersync.metrics.SyncMetrics;
+
+import java.util.Collection;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
-/** Interface for reading and writing data of {@link PlayerDataApi}s. */
+/**
+ * Interface for reading and writing data of {@link PlayerDataApi}s.
+ *
+ * <p>{@link #read(UUID)} and {@link #write(UUID)} block the calling thread until the database
+ * responds and must not be called on the main thread of the server, {@link #readAsync} and
+ * {@link #writeAsync} run them on a given executor instead. The futures returned by the
+ * asynchronous methods are completed on a thread of that executor, or of the implementation if it
+ * hands the I/O off to its own threads, so dependent stages which are not given an executor run
+ * on it too, or on the calling thread if the future was already completed. Stages touching the
+ * player, like applying the values that were read, must hop to the main thread through
+ * {@link BukkitExecutors#mainThread}.
+ */
 public interface PlayerDataReadWriter {
   void open();
   void close();
 
-  ImmutableList<PlayerDataApi<?>> read(UUID playerUUID);
+  PlayerSnapshot read(UUID playerUUID);
   void write(UUID playerUUID);
+
+  /**
+   * Reads the values of the given player on the given executor, see {@link #read(UUID)}.
+   *
+   * @return a future completed on the executor with the values that were read, or exceptionally
+   *     if they could not be read.
+   */
+  default CompletableFuture<PlayerSnapshot> readAsync(UUID playerUUID, Executor executor) {
+    return CompletableFuture.supplyAsync(() -> read(playerUUID), executor);
+  }
+
+  /**
+   * Writes the values of the given player on the given executor. The values are captured on the
+   * calling thread, which must be the main thread, see {@link #captureWriteAsync(UUID)}.
+   *
+   * <p>The write is not ordered with the writes submitted through a
+   * {@link PlayerDataWriteQueue}, so it may be persisted before an older write of the same player
+   * that is still queued. Writes that must not overtake each other go through the queue instead.
+   *
+   * @return a future completed once the values were written, or exceptionally if they could not
+   *     be written. If the implementation hands the I/O off to its own threads, e.g. with group
+   *     commit, the future is completed by them and the executor is not blocked waiting for it.
+   */
+  default CompletableFuture<Void> writeAsync(UUID playerUUID, Executor executor) {
+    return CompletableFuture.supplyAsync(captureWriteAsync(playerUUID), executor)
+        .thenCompose(written -> written);
+  }
+
+  /**
+   * Captures the values of the given player on the calling thread, see
+   * {@link PlayerDataApi#snapshot(org.bukkit.entity.Player)}, and returns the task that persists
+   * them, so it can be run later on a different thread, e.g. through a
+   * {@link PlayerDataWriteQueue}. By default, the returned task simply calls {@link #write(UUID)}.
+   */
+  default Runnable captureWrite(UUID playerUUID) {
+    return () -> write(playerUUID);
+  }
+
+  /**
+   * Like {@link #captureWrite(UUID)}, but for the last write of a player that is leaving the
+   * server, after which the implementation can discard any state kept for the player.
+   */
+  default Runnable captureQuitWrite(UUID playerUUID) {
+    return captureWrite(playerUUID);
+  }
+
+  /**
+   * Like {@link #captureWrite(UUID)}, but the returned task does not wait for the values to be
+   * persisted, it returns a future completed once they were, for implementations that hand the
+   * I/O off to another thread. Meant to be submitted through
+   * {@link PlayerDataWriteQueue#submitAsync}. By default, the task runs the one returned by
+   * {@link #captureWrite(UUID)} and returns a completed future.
+   */
+  default Supplier<CompletableFuture<Void>> captureWriteAsync(UUID playerUUID) {
+    Runnable write = captureWrite(playerUUID);
+    return () -> {
+      write.run();
+      return CompletableFuture.completedFuture(null);
+    };
+  }
+
+  /**
+   * Like {@link #captureWriteAsync(UUID)}, but for the last write of a player that is leaving the
+   * server, see {@link #captureQuitWrite(UUID)}.
+   */
+  default Supplier<CompletableFuture<Void>> captureQuitWriteAsync(UUID playerUUID) {
+    Runnable write = captureQuitWrite(playerUUID);
+    return () -> {
+      write.run();
+      return CompletableFuture.completedFuture(null);
+    };
+  }
+
+  /**
+   * Called when value apis or serializers are registered after the read writer was created, so
+   * implementations binding the values to their serializers ahead of time can bind them again.
+   * By default, this method does nothing.
+   */
+  default void rebuildSyncPlan() {}
+
+  /**
+   * Releases the given player without writing its values, used when the player leaves the server
+   * before its values were applied so the stored values are not overwritten. By default, this
+   * method does nothing.
+   */
+  default void release(UUID playerUUID) {}
+
+  /**
+   * @return the metrics of the reads and writes of this read writer, also used to record the
+   *     metrics of applying the values that were read. By default, nothing is recorded.
+   */
+  default SyncMetrics getMetrics() {
+    return SyncMetrics.NOOP;
+  }
+
+  /**
+   * Writes the values of all the given players as their last write, used when the server stops
+   * with players still online. The values are captured on the calling thread and written using
+   * up to {@code parallelism} threads, giving up once the timeout elapses. By default, the
+   * players are written one by one through {@link #captureQuitWrite(UUID)}.
+   *
+   * @return the players whose values could not be written.
+   * @throws IllegalArgumentException if {@code parallelism} is not positive.
+   */
+  default ImmutableSet<UUID> flush(Collection<UUID> playerUUIDs, int parallelism, long timeout, TimeUnit unit) {
+    checkArgument(parallelism > 0, "parallelism must be positive");
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    ImmutableSet.Builder<UUID> unsavedPlayers = ImmutableSet.builder();
+    for (UUID playerUUID : playerUUIDs) {
+      if (System.nanoTime() - deadline >= 0) {
+        unsavedPlayers.add(playerUUID);
+        continue;
+      }
+      try {
+        captureQuitWrite(playerUUID).run();
+      } catch (RuntimeException e) {
+        unsavedPlayers.add(playerUUID);
+      }
+    }
+    return unsavedPlayers.build();
+  }
 }
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bukkit.Bukkit;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the writes of players on a bounded pool of worker threads, so that the blocking I/O of
+ * a {@link PlayerDataReadWriter} never happens on the server main thread.
+ *
+ * <p>Writes of the same player are always run in the order in which they were submitted, while
+ * writes of different players can run in parallel. The number of pending writes is limited, once
+ * the limit is reached {@link #submit(UUID, Runnable)} waits for a slot to be free, except on the
+ * server main thread which is never blocked, there the queue grows past the limit instead.
+ *
+ * <p>Writes that hand their I/O off to another thread, like a save waiting for its group commit,
+ * are submitted with {@link #submitAsync(UUID, Supplier)}. They hold their slot, block the next
+ * writes of the player and are waited for on shutdown until the future they return completes.
+ */
+public class PlayerDataWriteQueue {
+  private final Map<UUID, CompletableFuture<Void>> pendingWrites = new ConcurrentHashMap<>();
+
+  private final ExecutorService executorService;
+  private final Semaphore queueSlots;
+  private final Logger logger;
+  private final BooleanSupplier isMainThread;
+
+  private volatile boolean shutdown;
+
+  public PlayerDataWriteQueue(int threads, int maxPendingWrites, Logger logger) {
+    this(threads, maxPendingWrites, logger, Bukkit::isPrimaryThread);
+  }
+
+  /**
+   * @param isMainThread whether the calling thread is the server main thread, on which
+   *     {@link #submit(UUID, Runnable)} never waits for a slot.
+   */
+  public PlayerDataWriteQueue(int threads, int maxPendingWrites, Logger logger, BooleanSupplier isMainThread) {
+    checkArgument(threads > 0, "threads must be positive");
+    checkArgument(maxPendingWrites > 0, "maxPendingWrites must be positive");
+    this.executorService = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder()
+            .setNameFormat("zplayersync-writer-%d")
+            .setDaemon(true)
+            .build());
+    this.queueSlots = new Semaphore(maxPendingWrites);
+    this.logger = checkNotNull(logger);
+    this.isMainThread = checkNotNull(isMainThread);
+  }
+
+  /**
+   * Submits the given write of the player, the write is run after all the previously submitted
+   * writes of the same player have completed.
+   *
+   * @return a future completed once the write has been run.
+   * @throws RejectedExecutionException if this queue has been shut down.
+   */
+  public CompletableFuture<Void> submit(UUID playerUUID, Runnable write) {
+    checkNotNull(write);
+    return submitAsync(playerUUID, () -> {
+      write.run();
+      return CompletableFuture.completedFuture(null);
+    });
+  }
+
+  /**
+   * Submits the given write of the player, like {@link #submit(UUID, Runnable)}, for writes that
+   * complete asynchronously. The write is considered pending until the future it returns is
+   * completed.
+   *
+   * @return a future completed once the future returned by the write has been completed.
+   * @throws RejectedExecutionException if this queue has been shut down.
+   */
+  public CompletableFuture<Void> submitAsync(UUID playerUUID, Supplier<CompletableFuture<Void>> write) {
+    checkNotNull(playerUUID);
+    checkNotNull(write);
+    if (shutdown) {
+      throw new RejectedExecutionException("Write queue has been shut down");
+    }
+
+    boolean slotAcquired = queueSlots.tryAcquire();
+    if (!slotAcquired) {
+      if (isMainThread.getAsBoolean()) {
+        logger.log(Level.WARNING, "Write queue is full, queueing the write of player " + playerUUID
+            + " past the limit");
+      } else {
+        logger.log(Level.WARNING, "Write queue is full, waiting for pending writes to complete");
+        queueSlots.acquireUninterruptibly();
+        slotAcquired = true;
+      }
+    }
+    return enqueue(playerUUID, write, slotAcquired);
+  }
+
+  /**
+   * Submits the given write of the player like {@link #submitAsync(UUID, Supplier)}, unless the
+   * queue is full, for writes that can be skipped instead of waiting or growing the queue.
+   *
+   * @return a future completed once the future returned by the write has been completed, or
+   *     {@code null} if the write was not submitted because the queue is full.
+   * @throws RejectedExecutionException if this queue has been shut down.
+   */
+  @Nullable
+  public CompletableFuture<Void> trySubmitAsync(UUID playerUUID, Supplier<CompletableFuture<Void>> write) {
+    checkNotNull(playerUUID);
+    checkNotNull(write);
+    if (!tryReserve()) {
+      return null;
+    }
+    return submitReservedAsync(playerUUID, write);
+  }
+
+  /**
+   * Reserves a slot for a write that can be skipped when the queue is full, so the write is only
+   * prepared, e.g. its values captured, once it is known to fit. The slot must then be used by
+   * {@link #submitReservedAsync(UUID, Supplier)} or given back with {@link #cancelReservation()}.
+   *
+   * @return {@code false} if the queue is full, in which case no slot was reserved.
+   * @throws RejectedExecutionException if this queue has been shut down.
+   */
+  public boolean tryReserve() {
+    if (shutdown) {
+      throw new RejectedExecutionException("Write queue has been shut down");
+    }
+    return queueSlots.tryAcquire();
+  }
+
+  /** Gives back a slot reserved with {@link #tryReserve()} that is not going to be used. */
+  public void cancelReservation() {
+    queueSlots.release();
+  }
+
+  /**
+   * Submits the given write of the player like {@link #submitAsync(UUID, Supplier)}, in a slot
+   * reserved with {@link #tryReserve()}.
+   *
+   * @return a future completed once the future returned by the write has been completed.
+   * @throws RejectedExecutionException if this queue has been shut down since the slot was
+   *     reserved, in which case the slot is given back.
+   */
+  public CompletableFuture<Void> submitReservedAsync(UUID playerUUID, Supplier<CompletableFuture<Void>> write) {
+    if (shutdown) {
+      cancelReservation();
+      throw new RejectedExecutionException("Write queue has been shut down");
+    }
+    return enqueue(checkNotNull(playerUUID), checkNotNull(write), true);
+  }
+
+  private CompletableFuture<Void> enqueue(
+      UUID playerUUID, Supplier<CompletableFuture<Void>> write, boolean releaseSlot) {
+    // Only completed once the write is no longer pending, so anything waiting for it, like
+    // shutdown, sees the slot released and the player removed
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    CompletableFuture<?>[] written = new CompletableFuture<?>[1];
+    pendingWrites.compute(playerUUID, (uuid, previous) -> {
+      written[0] = (previous == null ? CompletableFuture.<Void>completedFuture(null) : previous)
+          // The previous write result does not matter, only its completion
+          .handle((unused, throwable) -> null)
+          .thenComposeAsync(unused -> write.get(), executorService);
+      return future;
+    });
+    written[0].whenComplete((unused, throwable) -> {
+      if (releaseSlot) {
+        queueSlots.release();
+      }
+      pendingWrites.remove(playerUUID, future);
+      if (throwable != null) {
+        logger.log(Level.SEVERE, "Could not write data of player " + playerUUID, throwable);
+        future.completeExceptionally(throwable);
+      } else {
+        future.complete(null);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * @return a future completed once all the writes of the given player submitted so far have
+   *     been run, whether they succeeded or not.
+   */
+  public CompletableFuture<Void> pendingWrite(UUID playerUUID) {
+    CompletableFuture<Void> future = pendingWrites.get(playerUUID);
+    return future == null ? CompletableFuture.completedFuture(null) : future.handle((unused, throwable) -> null);
+  }
+
+  /** @return the number of players that have writes pending to be completed. */
+  public int pendingPlayers() {
+    return pendingWrites.size();
+  }
+
+  /**
+   * Stops accepting new writes and waits up to the given timeout for all the pending writes to
+   * complete before shutting down the worker threads.
+   *
+   * @return {@code true} if all the pending writes were completed in time.
+   */
+  public boolean shutdown(long timeout, TimeUnit unit) {
+    shutdown = true;
+    boolean drained = true;
+    try {
+      CompletableFuture.allOf(pendingWrites.values().toArray(new CompletableFuture<?>[0]))
+          .handle((unused, throwable) -> null)
+          .get(timeout, unit);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      drained = false;
+    } catch (ExecutionException | TimeoutException e) {
+      drained = false;
+    }
+    executorService.shutdown();
+    if (!drained) {
+      logger.log(Level.WARNING, "Could not complete the writes of "
+          + pendingPlayers() + " players before shutting down");
+    }
+    return drained;
+  }
+}
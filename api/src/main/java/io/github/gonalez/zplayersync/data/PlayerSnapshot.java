@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableList;
+import org.bukkit.entity.Player;
+
+import javax.annotation.Nullable;
+
+/**
+ * Immutable values of a player, stored in an array indexed by the ids of their
+ * {@link PlayerValueKey}s.
+ *
+ * <p>A snapshot covers the keys that were registered when it was built, values of keys registered
+ * later are absent from it.
+ */
+public final class PlayerSnapshot {
+  private final ImmutableList<PlayerValueKey<?>> keys;
+  private final Object[] values;
+
+  private PlayerSnapshot(ImmutableList<PlayerValueKey<?>> keys, Object[] values) {
+    this.keys = keys;
+    this.values = values;
+  }
+
+  /** @return a builder of a snapshot of the given keys, see {@link PlayerValueRegistry#keys()}. */
+  public static Builder builder(ImmutableList<PlayerValueKey<?>> keys) {
+    return new Builder(keys, new Object[keys.size()]);
+  }
+
+  /** @return the keys this snapshot can hold values of, indexed by their id. */
+  public ImmutableList<PlayerValueKey<?>> keys() {
+    return keys;
+  }
+
+  public boolean contains(PlayerValueKey<?> key) {
+    return covers(key) && values[key.id()] != null;
+  }
+
+  /** @return the value of the given key, or {@code null} if the snapshot has no value for it. */
+  @SuppressWarnings("unchecked")
+  @Nullable
+  public <T> T get(PlayerValueKey<T> key) {
+    return covers(key) ? (T) values[key.id()] : null;
+  }
+
+  /** @return the number of values in this snapshot. */
+  public int valueCount() {
+    int valueCount = 0;
+    for (Object value : values) {
+      if (value != null) {
+        valueCount++;
+      }
+    }
+    return valueCount;
+  }
+
+  /**
+   * Sets the value of the given key to the player, see {@link PlayerDataApi#set(Player, Object)}.
+   *
+   * @return {@code false} if the snapshot has no value for the key, in which case nothing is set.
+   */
+  public <T> boolean apply(PlayerValueKey<T> key, Player player) {
+    T value = get(key);
+    if (value == null) {
+      return false;
+    }
+    key.valueApi().set(player, value);
+    return true;
+  }
+
+  /** @return a builder initialized with the values of this snapshot. */
+  public Builder toBuilder() {
+    return new Builder(keys, values.clone());
+  }
+
+  private boolean covers(PlayerValueKey<?> key) {
+    return key.id() < keys.size() && keys.get(key.id()) == key;
+  }
+
+  /** Builder of {@link PlayerSnapshot}, it can only build a single snapshot. */
+  public static final class Builder {
+    private final ImmutableList<PlayerValueKey<?>> keys;
+    @Nullable
+    private Object[] values;
+
+    private Builder(ImmutableList<PlayerValueKey<?>> keys, Object[] values) {
+      this.keys = checkNotNull(keys);
+      this.values = values;
+    }
+
+    /** Sets the value of the given key, a {@code null} value removes it. */
+    public <T> Builder put(PlayerValueKey<T> key, @Nullable T value) {
+      checkState(values != null, "The snapshot was already built");
+      checkArgument(key.id() < keys.size() && keys.get(key.id()) == key, "Unknown key %s", key);
+      values[key.id()] = value;
+      return this;
+    }
+
+    public PlayerSnapshot build() {
+      checkState(values != null, "The snapshot was already built");
+      // The values are handed over without copying them
+      PlayerSnapshot snapshot = new PlayerSnapshot(keys, values);
+      values = null;
+      return snapshot;
+    }
+  }
+}
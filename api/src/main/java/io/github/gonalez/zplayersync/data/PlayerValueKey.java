@@ -0,0 +1,50 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link PlayerDataApi} registered in a {@link PlayerValueRegistry}, along with the dense id
+ * assigned to it at registration. The id is the index of the value in a {@link PlayerSnapshot}.
+ */
+public final class PlayerValueKey<T> {
+  private final int id;
+  private final PlayerDataApi<T> valueApi;
+
+  PlayerValueKey(int id, PlayerDataApi<T> valueApi) {
+    this.id = id;
+    this.valueApi = checkNotNull(valueApi);
+  }
+
+  public int id() {
+    return id;
+  }
+
+  public PlayerDataApi<T> valueApi() {
+    return valueApi;
+  }
+
+  /** @return the unique identifier of the value, see {@link PlayerDataApi#identifier()}. */
+  public String identifier() {
+    return valueApi.identifier();
+  }
+
+  @Override
+  public String toString() {
+    return id + ":" + valueApi.identifier();
+  }
+}
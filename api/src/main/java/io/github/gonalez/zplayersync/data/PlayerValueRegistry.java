@@ -0,0 +1,64 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nullable;
+
+/**
+ * Assigns dense ids to the {@link PlayerDataApi}s in the order in which they are registered.
+ *
+ * <p>Registering a value publishes a new list of keys, the list returned by {@link #keys()} is
+ * never modified so it can be read on any thread without copying it.
+ */
+public final class PlayerValueRegistry {
+  private volatile ImmutableList<PlayerValueKey<?>> keys = ImmutableList.of();
+
+  /**
+   * Registers the given value api, assigning it the next id.
+   *
+   * @throws IllegalArgumentException if a value api with the same identifier was registered.
+   */
+  public synchronized <T> PlayerValueKey<T> register(PlayerDataApi<T> valueApi) {
+    checkArgument(find(valueApi.identifier()) == null,
+        "A value with identifier %s is already registered", valueApi.identifier());
+    PlayerValueKey<T> key = new PlayerValueKey<>(keys.size(), valueApi);
+    keys = ImmutableList.<PlayerValueKey<?>>builder().addAll(keys).add(key).build();
+    return key;
+  }
+
+  /** @return the keys registered so far, the key at each index has that index as its id. */
+  public ImmutableList<PlayerValueKey<?>> keys() {
+    return keys;
+  }
+
+  /**
+   * @return the key of the value api with the given identifier, or {@code null} if not
+   *     registered.
+   */
+  @Nullable
+  public PlayerValueKey<?> find(String identifier) {
+    for (PlayerValueKey<?> key : keys) {
+      if (key.identifier().equals(identifier)) {
+        return key;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import io.github.gonalez.zplayersync.metrics.SyncMetrics;
+import io.github.gonalez.zplayersync.metrics.SyncStage;
+import io.github.gonalez.zplayersync.metrics.SyncTracer;
+import io.github.gonalez.zplayersync.serializer.BinaryObjectSerializer;
+import io.github.gonalez.zplayersync.serializer.PayloadCompression;
+import org.bukkit.entity.Player;
+
+import javax.annotation.Nullable;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * The values a {@link PlayerDataReadWriter} reads and writes, each bound to its serializer and
+ * compression ahead of time. A plan is never modified, read writers build a new one when value
+ * apis or serializers are registered later, see {@link PlayerDataReadWriter#rebuildSyncPlan()}.
+ */
+public final class SyncPlan {
+  // The keys of the snapshots, including the values without a serializer
+  private final ImmutableList<PlayerValueKey<?>> keys;
+  // The values with a serializer, in the order of the ids of their keys
+  private final ImmutableList<Entry<?>> entries;
+
+  private SyncPlan(ImmutableList<PlayerValueKey<?>> keys, ImmutableList<Entry<?>> entries) {
+    this.keys = keys;
+    this.entries = entries;
+  }
+
+  /**
+   * Binds the given keys to their serializers and compressions. Values without a serializer are
+   * left out of the entries of the plan, so they are neither read nor written.
+   */
+  public static SyncPlan bind(ImmutableList<PlayerValueKey<?>> keys, Binder binder) {
+    ImmutableList.Builder<Entry<?>> entries = ImmutableList.builder();
+    for (PlayerValueKey<?> key : keys) {
+      Entry<?> entry = bindEntry(key, binder);
+      if (entry != null) {
+        entries.add(entry);
+      }
+    }
+    return new SyncPlan(keys, entries.build());
+  }
+
+  @Nullable
+  private static <T> Entry<T> bindEntry(PlayerValueKey<T> key, Binder binder) {
+    BinaryObjectSerializer<T> serializer = binder.findSerializerOfType(key.valueApi().type());
+    return serializer == null ? null
+        : new Entry<>(key, serializer, binder.findPayloadCompression(key.identifier()));
+  }
+
+  /** @return the keys of the snapshots of this plan, including the values without a serializer. */
+  public ImmutableList<PlayerValueKey<?>> keys() {
+    return keys;
+  }
+
+  /** @return the values that are read and written, in the order of the ids of their keys. */
+  public ImmutableList<Entry<?>> entries() {
+    return entries;
+  }
+
+  /**
+   * Copies the values of the entries of this plan from the given player. Only the values are
+   * copied, they are serialized later with {@link Entry#serialize}.
+   */
+  public PlayerSnapshot capture(Player player) {
+    PlayerSnapshot.Builder snapshot = PlayerSnapshot.builder(keys);
+    for (Entry<?> entry : entries) {
+      captureValue(snapshot, entry.key, player);
+    }
+    return snapshot.build();
+  }
+
+  private static <T> void captureValue(PlayerSnapshot.Builder snapshot, PlayerValueKey<T> key, Player player) {
+    snapshot.put(key, key.valueApi().snapshot(player));
+  }
+
+  /** @return the fingerprint of the given serialized value, to tell whether it changed. */
+  public static long fingerprint(byte[] serializedValue) {
+    return Hashing.murmur3_128().hashBytes(serializedValue).asLong();
+  }
+
+  /** Finds the serializers and compressions the values of a plan are bound to. */
+  public interface Binder {
+
+    /** @return the serializer of the given class, or {@code null} if there is none. */
+    @Nullable
+    <T> BinaryObjectSerializer<T> findSerializerOfType(Class<T> type);
+
+    /** @return the compression of the serialized values of the given identifier. */
+    PayloadCompression findPayloadCompression(String identifier);
+  }
+
+  /** A value of a {@link SyncPlan}. */
+  public static final class Entry<T> {
+    private final PlayerValueKey<T> key;
+    private final BinaryObjectSerializer<T> serializer;
+    private final PayloadCompression compression;
+
+    private Entry(PlayerValueKey<T> key, BinaryObjectSerializer<T> serializer, PayloadCompression compression) {
+      this.key = key;
+      this.serializer = serializer;
+      this.compression = compression;
+    }
+
+    public PlayerValueKey<T> key() {
+      return key;
+    }
+
+    public BinaryObjectSerializer<T> serializer() {
+      return serializer;
+    }
+
+    public PayloadCompression compression() {
+      return compression;
+    }
+
+    /**
+     * Serializes the value of this entry in the given snapshot, recording its metrics.
+     *
+     * @return the serialized value, or {@code null} if the snapshot has no value for the entry.
+     */
+    @Nullable
+    public byte[] serialize(UUID uuid, PlayerSnapshot snapshot, SyncMetrics metrics) {
+      T value = snapshot.get(key);
+      if (value == null) {
+        return null;
+      }
+      String identifier = key.identifier();
+      long startNanos = System.nanoTime();
+      SyncTracer.ValueStageSpan span = metrics.getTracer().startValueStage(uuid, identifier, SyncStage.SERIALIZE);
+      byte[] serializedValue;
+      try {
+        serializedValue = serializer.serializeBytes(value);
+      } catch (RuntimeException e) {
+        metrics.recordError(identifier, e);
+        throw e;
+      }
+      long durationNanos = System.nanoTime() - startNanos;
+      metrics.recordLatency(identifier, SyncStage.SERIALIZE, durationNanos);
+      if (serializedValue != null) {
+        metrics.recordPayloadSize(identifier, serializedValue.length);
+        span.finish(serializedValue.length);
+      }
+      return serializedValue;
+    }
+
+    /**
+     * Deserializes the given decompressed value of this entry into the snapshot, recording its
+     * metrics.
+     */
+    public void deserialize(UUID uuid, PlayerSnapshot.Builder snapshot, byte[] serializedValue, SyncMetrics metrics) {
+      String identifier = key.identifier();
+      metrics.recordPayloadSize(identifier, serializedValue.length);
+      long startNanos = System.nanoTime();
+      SyncTracer.ValueStageSpan span = metrics.getTracer().startValueStage(uuid, identifier, SyncStage.DESERIALIZE);
+      T data;
+      try {
+        data = serializer.deserializeBytes(serializedValue);
+      } catch (RuntimeException e) {
+        metrics.recordError(identifier, e);
+        throw e;
+      }
+      long durationNanos = System.nanoTime() - startNanos;
+      metrics.recordLatency(identifier, SyncStage.DESERIALIZE, durationNanos);
+      span.finish(serializedValue.length);
+      snapshot.put(key, data);
+    }
+  }
+
+  /**
+   * Holds the current plan of a read writer, or a structure derived from it, built the first time
+   * it is used and replaced as a whole when rebuilt. Reads and writes that already started keep
+   * using the plan they started with.
+   */
+  public static final class Holder<P> {
+    private final Object lock = new Object();
+    private final Supplier<P> builder;
+    @Nullable
+    private volatile P plan;
+
+    public Holder(Supplier<P> builder) {
+      this.builder = checkNotNull(builder);
+    }
+
+    /** @return the current plan, building it the first time it is used. */
+    public P get() {
+      P plan = this.plan;
+      if (plan == null) {
+        synchronized (lock) {
+          plan = this.plan;
+          if (plan == null) {
+            plan = builder.get();
+            this.plan = plan;
+          }
+        }
+      }
+      return plan;
+    }
+
+    /** Builds a new plan, replacing the current one. */
+    public void rebuild() {
+      synchronized (lock) {
+        plan = builder.get();
+      }
+    }
+  }
+}
@@ -15,8 +15,14 @@
  */
 package io.github.gonalez.zplayersync.data.event;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
 import io.github.gonalez.zplayersync.data.PlayerDataApi;
 import io.github.gonalez.zplayersync.data.PlayerDataReadWriter;
+import io.github.gonalez.zplayersync.data.PlayerSnapshot;
+import io.github.gonalez.zplayersync.data.PlayerValueKey;
+import org.bukkit.entity.Player;
 import org.bukkit.event.Cancellable;
 import org.bukkit.event.Event;
 import org.bukkit.event.HandlerList;
@@ -24,28 +30,57 @@ import org.bukkit.event.HandlerList;
 import java.util.List;
 import java.util.UUID;
 
-/** Event called when {@link PlayerDataReadWriter#read(UUID)}. */
+/**
+ * Event called with the values read by {@link PlayerDataReadWriter#read(UUID)}, before they are
+ * applied to the player. The values to apply can be replaced with
+ * {@link #setSnapshot(PlayerSnapshot)}.
+ */
 public class PlayerDataReadEvent extends Event implements Cancellable {
   private static final HandlerList handlers = new HandlerList();
 
   private final UUID playerUUID;
-  private final List<PlayerDataApi<?>> valueApis;
+  private PlayerSnapshot snapshot;
 
   private boolean cancelled = false;
 
   public PlayerDataReadEvent(
       UUID playerUUID,
-      List<PlayerDataApi<?>> valueApis) {
+      PlayerSnapshot snapshot) {
     this.playerUUID = playerUUID;
-    this.valueApis = valueApis;
+    this.snapshot = checkNotNull(snapshot);
   }
 
   public UUID getPlayerUUID() {
     return playerUUID;
   }
 
+  public PlayerSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  public void setSnapshot(PlayerSnapshot snapshot) {
+    this.snapshot = checkNotNull(snapshot);
+  }
+
+  /**
+   * @return the values of the snapshot, each one applied to the player with
+   *     {@link PlayerDataApi#set(Player)}.
+   * @deprecated use {@link #getSnapshot()}. The returned list is a read-only copy of the snapshot,
+   *     the values applied to the player are only changed through {@link #setSnapshot}.
+   */
+  @Deprecated
   public List<PlayerDataApi<?>> getValueApis() {
-    return valueApis;
+    ImmutableList.Builder<PlayerDataApi<?>> valueApis = ImmutableList.builder();
+    for (PlayerValueKey<?> key : snapshot.keys()) {
+      if (snapshot.contains(key)) {
+        valueApis.add(valueApiOf(key));
+      }
+    }
+    return valueApis.build();
+  }
+
+  private <T> PlayerDataApi<T> valueApiOf(PlayerValueKey<T> key) {
+    return new SnapshotValueApi<>(key.valueApi(), snapshot.get(key));
   }
 
   @Override
@@ -66,4 +101,46 @@ public class PlayerDataReadEvent extends Event implements Cancellable {
   public static HandlerList getHandlerList() {
     return handlers;
   }
+
+  /** A value of the snapshot exposed as a standalone value api, see {@link #getValueApis()}. */
+  @SuppressWarnings("deprecation")
+  private static final class SnapshotValueApi<T> implements PlayerDataApi<T> {
+    private final PlayerDataApi<T> valueApi;
+    private final T value;
+
+    SnapshotValueApi(PlayerDataApi<T> valueApi, T value) {
+      this.valueApi = valueApi;
+      this.value = value;
+    }
+
+    @Override
+    public Class<T> type() {
+      return valueApi.type();
+    }
+
+    @Override
+    public String identifier() {
+      return valueApi.identifier();
+    }
+
+    @Override
+    public T read(Player input) {
+      return value;
+    }
+
+    @Override
+    public void set(Player input, T value) {
+      set(input);
+    }
+
+    @Override
+    public void set(Player input) {
+      valueApi.set(input, value);
+    }
+
+    @Override
+    public boolean isStandalone() {
+      return true;
+    }
+  }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.UUID;
+
+/**
+ * {@link SyncTracer} emitting Java Flight Recorder events. The events are begun when their stage
+ * starts and committed when it ends, so the duration of an event is the duration of its stage.
+ * Only loaded once Java Flight Recorder is known to be available, see
+ * {@link SyncTracer#flightRecorder()}.
+ */
+class FlightRecorderSyncTracer implements SyncTracer {
+  private static final String CATEGORY = "ZPlayerSync";
+
+  @Name("zplayersync.ValueStage")
+  @Label("Value Stage")
+  @Description("A stage of syncing a single value of a player")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static class ValueStageEvent extends Event implements ValueStageSpan {
+    @Label("Player")
+    String player;
+    @Label("Value")
+    String value;
+    @Label("Stage")
+    String stage;
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Override
+    public void finish(int bytes) {
+      this.bytes = bytes;
+      commit();
+    }
+  }
+
+  @Name("zplayersync.Database")
+  @Label("Database")
+  @Description("A read or write of the values of a player from the database")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static class DatabaseEvent extends Event implements DatabaseSpan {
+    @Label("Player")
+    String player;
+    @Label("Write")
+    boolean write;
+    @Label("Values")
+    int valueCount;
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Override
+    public void finish(int valueCount, long bytes) {
+      this.valueCount = valueCount;
+      this.bytes = bytes;
+      commit();
+    }
+  }
+
+  @Name("zplayersync.PlayerJoin")
+  @Label("Player Join")
+  @Description("The time between the join of a player and applying the values read for it")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static class PlayerJoinEvent extends Event implements JoinSpan {
+    @Label("Player")
+    String player;
+    @Label("Prefetched")
+    @Description("Whether the values were read before the player joined")
+    boolean prefetched;
+    @Label("Queued")
+    @Timespan
+    long queued;
+    @Label("Read")
+    @Timespan
+    long read;
+    @Label("Read Event")
+    @Timespan
+    long readEvent;
+    @Label("Apply")
+    @Timespan
+    long apply;
+
+    @Override
+    public void finish(boolean prefetched, long queuedNanos, long readNanos, long eventNanos, long applyNanos) {
+      this.prefetched = prefetched;
+      this.queued = queuedNanos;
+      this.read = readNanos;
+      this.readEvent = eventNanos;
+      this.apply = applyNanos;
+      commit();
+    }
+  }
+
+  @Name("zplayersync.PlayerQuit")
+  @Label("Player Quit")
+  @Description("The values of a player that left were captured to be written")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  static class PlayerQuitEvent extends Event implements QuitSpan {
+    @Label("Player")
+    String player;
+
+    @Override
+    public void finish() {
+      commit();
+    }
+  }
+
+  @Override
+  public ValueStageSpan startValueStage(UUID playerUUID, String identifier, SyncStage stage) {
+    ValueStageEvent event = new ValueStageEvent();
+    if (!event.isEnabled()) {
+      return ValueStageSpan.NOOP;
+    }
+    event.player = playerUUID.toString();
+    event.value = identifier;
+    event.stage = stage.name();
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public DatabaseSpan startDatabase(UUID playerUUID, boolean write) {
+    DatabaseEvent event = new DatabaseEvent();
+    if (!event.isEnabled()) {
+      return DatabaseSpan.NOOP;
+    }
+    event.player = playerUUID.toString();
+    event.write = write;
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public JoinSpan startJoin(UUID playerUUID) {
+    PlayerJoinEvent event = new PlayerJoinEvent();
+    if (!event.isEnabled()) {
+      return JoinSpan.NOOP;
+    }
+    event.player = playerUUID.toString();
+    event.begin();
+    return event;
+  }
+
+  @Override
+  public QuitSpan startQuit(UUID playerUUID) {
+    PlayerQuitEvent event = new PlayerQuitEvent();
+    if (!event.isEnabled()) {
+      return QuitSpan.NOOP;
+    }
+    event.player = playerUUID.toString();
+    event.begin();
+    return event;
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.metrics;
+
+import io.github.gonalez.zplayersync.ObjectSerializerException;
+
+import java.sql.SQLException;
+
+/** The kinds of errors of reading and writing the values of players that are counted. */
+public enum SyncError {
+  /** A value could not be serialized or deserialized. */
+  SERIALIZATION,
+  /** The database could not be read or written. */
+  DATABASE,
+  /** Any other error. */
+  OTHER;
+
+  /**
+   * @return the kind of the given error, determined by the first {@link ObjectSerializerException}
+   *     or {@link SQLException} in its causes, since they are usually wrapped.
+   */
+  public static SyncError of(Throwable throwable) {
+    for (Throwable cause = throwable; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+      if (cause instanceof ObjectSerializerException) {
+        return SERIALIZATION;
+      }
+      if (cause instanceof SQLException) {
+        return DATABASE;
+      }
+    }
+    return OTHER;
+  }
+}
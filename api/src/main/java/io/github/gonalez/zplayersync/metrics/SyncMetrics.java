@@ -0,0 +1,191 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.metrics;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableSortedMap;
+
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Metrics of reading and writing the values of players, keyed by the identifier of the value.
+ * Stages that handle all the values of a player at once, like the database, are recorded under
+ * {@link #ALL_VALUES}.
+ *
+ * <p>Recording is lock-free and does not allocate, except the first time a value is recorded.
+ * The metrics can be exported through JMX with {@link #exportToJmx(String)}, every value is
+ * exported as an MBean with its errors, plus an MBean per stage and one for the payload sizes.
+ */
+public class SyncMetrics {
+  private static final Logger LOGGER = Logger.getLogger(SyncMetrics.class.getName());
+
+  /** The identifier under which the metrics of all the values of a player at once are recorded. */
+  public static final String ALL_VALUES = "*";
+
+  /** Metrics that do not record anything, for read writers that do not record metrics. */
+  public static final SyncMetrics NOOP = new SyncMetrics(false);
+
+  private static final SyncStage[] STAGES = SyncStage.values();
+
+  private final Map<String, ValueMetrics> values = new ConcurrentHashMap<>();
+  private final boolean enabled;
+
+  private volatile SyncTracer tracer = SyncTracer.NOOP;
+
+  // The domain and the names of the exported MBeans, if exported
+  @Nullable
+  private String jmxDomain;
+  private final List<ObjectName> exportedNames = new ArrayList<>();
+
+  private SyncMetrics(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public SyncMetrics() {
+    this(true);
+  }
+
+  /** @return the tracer to which the timeline of syncing players is reported. */
+  public SyncTracer getTracer() {
+    return tracer;
+  }
+
+  /**
+   * Sets the tracer to which the timeline of syncing players is reported, ignored by
+   * {@link #NOOP}.
+   */
+  public void setTracer(SyncTracer tracer) {
+    if (enabled) {
+      this.tracer = checkNotNull(tracer);
+    }
+  }
+
+  /** Records the latency of the given stage of the given value, in nanoseconds. */
+  public void recordLatency(String identifier, SyncStage stage, long nanos) {
+    if (enabled) {
+      forValue(identifier).latency(stage).record(nanos);
+    }
+  }
+
+  /** Records the size of a serialized value before compression, in bytes. */
+  public void recordPayloadSize(String identifier, int bytes) {
+    if (enabled) {
+      forValue(identifier).payloadSizes().record(bytes);
+    }
+  }
+
+  /**
+   * Records an error of the given value, its kind is determined with
+   * {@link SyncError#of(Throwable)}.
+   */
+  public void recordError(String identifier, Throwable throwable) {
+    recordError(identifier, SyncError.of(throwable));
+  }
+
+  /** Records an error of the given kind of the given value. */
+  public void recordError(String identifier, SyncError error) {
+    if (enabled) {
+      forValue(identifier).recordError(error);
+    }
+  }
+
+  /** @return the metrics of the given value, created if nothing was recorded for it yet. */
+  public ValueMetrics forValue(String identifier) {
+    ValueMetrics valueMetrics = values.get(identifier);
+    if (valueMetrics == null) {
+      valueMetrics = createValueMetrics(identifier);
+    }
+    return valueMetrics;
+  }
+
+  /** @return the metrics of all the values recorded so far, sorted by identifier. */
+  public ImmutableSortedMap<String, ValueMetrics> values() {
+    return ImmutableSortedMap.copyOf(values);
+  }
+
+  /**
+   * Registers the metrics of the values recorded so far, and of the values recorded later, as
+   * MBeans of the platform MBean server in the given domain.
+   */
+  public synchronized void exportToJmx(String domain) {
+    checkNotNull(domain);
+    if (jmxDomain != null) {
+      return;
+    }
+    jmxDomain = domain;
+    for (ValueMetrics valueMetrics : values.values()) {
+      export(valueMetrics);
+    }
+  }
+
+  /** Unregisters the MBeans registered by {@link #exportToJmx(String)}. */
+  public synchronized void unexportFromJmx() {
+    MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    for (ObjectName objectName : exportedNames) {
+      try {
+        mBeanServer.unregisterMBean(objectName);
+      } catch (JMException e) {
+        LOGGER.log(Level.FINE, "Could not unregister " + objectName, e);
+      }
+    }
+    exportedNames.clear();
+    jmxDomain = null;
+  }
+
+  private synchronized ValueMetrics createValueMetrics(String identifier) {
+    ValueMetrics valueMetrics = values.get(identifier);
+    if (valueMetrics == null) {
+      valueMetrics = new ValueMetrics(identifier);
+      values.put(identifier, valueMetrics);
+      if (jmxDomain != null) {
+        export(valueMetrics);
+      }
+    }
+    return valueMetrics;
+  }
+
+  private void export(ValueMetrics valueMetrics) {
+    String value = ObjectName.quote(valueMetrics.getIdentifier());
+    register(valueMetrics, "type=Value,value=" + value);
+    register(valueMetrics.payloadSizes(), "type=PayloadSize,value=" + value);
+    for (SyncStage stage : STAGES) {
+      register(valueMetrics.latency(stage),
+          "type=Latency,value=" + value + ",stage=" + stage.name().toLowerCase(Locale.ROOT));
+    }
+  }
+
+  private void register(Object mBean, String properties) {
+    try {
+      ObjectName objectName = new ObjectName(jmxDomain + ":" + properties);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(mBean, objectName);
+      exportedNames.add(objectName);
+    } catch (JMException e) {
+      LOGGER.log(Level.WARNING, "Could not export the metrics " + properties + " through JMX", e);
+    }
+  }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.metrics;
+
+/** The stages of reading and writing the values of players whose latency is recorded. */
+public enum SyncStage {
+  /** Serializing a value to be written. */
+  SERIALIZE,
+  /** Deserializing a value that was read. */
+  DESERIALIZE,
+  /** Reading or writing the database, for all the values of a player at once. */
+  DATABASE,
+  /** Applying a value that was read to the player, on the main thread. */
+  APPLY,
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.metrics;
+
+import java.util.UUID;
+
+/**
+ * Receives the timeline of syncing players, stage by stage, so it can be correlated with other
+ * events of the JVM. Every {@code start} method is called when its stage starts, and the returned
+ * span is finished once the stage ended, so the span covers the time of the stage.
+ */
+public interface SyncTracer {
+  /** Tracer that ignores everything. */
+  SyncTracer NOOP = new SyncTracer() {};
+
+  /** A stage of a single value of a player. */
+  interface ValueStageSpan {
+    ValueStageSpan NOOP = bytes -> {};
+
+    /**
+     * The stage ended, {@code bytes} is the size of the serialized value, or {@code 0} if
+     * unknown.
+     */
+    void finish(int bytes);
+  }
+
+  /** A read or write of the values of a player from the database. */
+  interface DatabaseSpan {
+    DatabaseSpan NOOP = (valueCount, bytes) -> {};
+
+    /** The values were read or written, {@code bytes} is their serialized size. */
+    void finish(int valueCount, long bytes);
+  }
+
+  /** The time between the join of a player and applying the values read for it. */
+  interface JoinSpan {
+    JoinSpan NOOP = (prefetched, queuedNanos, readNanos, eventNanos, applyNanos) -> {};
+
+    /**
+     * The values read for the player were applied.
+     *
+     * @param prefetched whether the values were read before the player joined.
+     * @param queuedNanos the time the read waited to be started.
+     * @param readNanos the time the read took.
+     * @param eventNanos the time the {@code PlayerDataReadEvent} took.
+     * @param applyNanos the time applying the values took.
+     */
+    void finish(boolean prefetched, long queuedNanos, long readNanos, long eventNanos, long applyNanos);
+  }
+
+  /** Capturing the values of a player that left, to be written. */
+  interface QuitSpan {
+    QuitSpan NOOP = () -> {};
+
+    /** The values were captured. */
+    void finish();
+  }
+
+  /** A stage of a single value of a player started. */
+  default ValueStageSpan startValueStage(UUID playerUUID, String identifier, SyncStage stage) {
+    return ValueStageSpan.NOOP;
+  }
+
+  /** The values of a player started being read from or written to the database. */
+  default DatabaseSpan startDatabase(UUID playerUUID, boolean write) {
+    return DatabaseSpan.NOOP;
+  }
+
+  /** A player joined, its values are applied once read. */
+  default JoinSpan startJoin(UUID playerUUID) {
+    return JoinSpan.NOOP;
+  }
+
+  /** A player left, its values are captured to be written. */
+  default QuitSpan startQuit(UUID playerUUID) {
+    return QuitSpan.NOOP;
+  }
+
+  /**
+   * @return a tracer emitting Java Flight Recorder events, or {@link #NOOP} if the running JVM
+   *     does not support Java Flight Recorder.
+   */
+  static SyncTracer flightRecorder() {
+    try {
+      Class.forName("jdk.jfr.Event");
+    } catch (ClassNotFoundException e) {
+      return NOOP;
+    }
+    return new FlightRecorderSyncTracer();
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.metrics;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** The latencies per stage, payload sizes and errors recorded for a value of players. */
+public class ValueMetrics implements ValueMetricsMXBean {
+  private static final int STAGE_COUNT = SyncStage.values().length;
+  private static final int ERROR_COUNT = SyncError.values().length;
+
+  private final String identifier;
+  private final Histogram[] latencies = new Histogram[STAGE_COUNT];
+  private final Histogram payloadSizes = new Histogram();
+  private final LongAdder[] errorCounts = new LongAdder[ERROR_COUNT];
+
+  public ValueMetrics(String identifier) {
+    this.identifier = checkNotNull(identifier);
+    for (int i = 0; i < STAGE_COUNT; i++) {
+      latencies[i] = new Histogram();
+    }
+    for (int i = 0; i < ERROR_COUNT; i++) {
+      errorCounts[i] = new LongAdder();
+    }
+  }
+
+  @Override
+  public String getIdentifier() {
+    return identifier;
+  }
+
+  /** @return the latencies of the given stage, in nanoseconds. */
+  public Histogram latency(SyncStage stage) {
+    return latencies[stage.ordinal()];
+  }
+
+  /** @return the sizes of the serialized values before compression, in bytes. */
+  public Histogram payloadSizes() {
+    return payloadSizes;
+  }
+
+  /** @return the number of errors of the given kind recorded so far. */
+  public long getErrorCount(SyncError error) {
+    return errorCounts[error.ordinal()].sum();
+  }
+
+  void recordError(SyncError error) {
+    errorCounts[error.ordinal()].increment();
+  }
+
+  @Override
+  public long getSerializationErrors() {
+    return getErrorCount(SyncError.SERIALIZATION);
+  }
+
+  @Override
+  public long getDatabaseErrors() {
+    return getErrorCount(SyncError.DATABASE);
+  }
+
+  @Override
+  public long getOtherErrors() {
+    return getErrorCount(SyncError.OTHER);
+  }
+}
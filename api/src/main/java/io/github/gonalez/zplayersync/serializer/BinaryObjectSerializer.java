@@ -0,0 +1,54 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.serializer;
+
+import io.github.gonalez.zplayersync.ObjectSerializerException;
+
+import java.util.Base64;
+
+/**
+ * An {@link ObjectSerializer} that serializes objects directly to bytes. By default, the
+ * {@code String} methods use the Base64 encoding of the bytes.
+ */
+public interface BinaryObjectSerializer<T> extends ObjectSerializer<T> {
+
+  /** @return the serialized value as bytes. */
+  byte[] serializeBytes(T value) throws ObjectSerializerException;
+
+  /** @return the deserialized value from the bytes. */
+  T deserializeBytes(byte[] data) throws ObjectSerializerException;
+
+  @Override
+  default String serialize(T value) throws ObjectSerializerException {
+    return Base64.getEncoder().encodeToString(serializeBytes(value));
+  }
+
+  @Override
+  default T deserialize(String data) throws ObjectSerializerException {
+    return deserializeBytes(Base64.getDecoder().decode(data));
+  }
+
+  /**
+   * @return the given serializer if it is already a {@code BinaryObjectSerializer}, otherwise
+   * a serializer that stores the {@code String} form of the given serializer as UTF-8 bytes.
+   */
+  static <T> BinaryObjectSerializer<T> of(ObjectSerializer<T> serializer) {
+    if (serializer instanceof BinaryObjectSerializer) {
+      return (BinaryObjectSerializer<T>) serializer;
+    }
+    return new StringObjectSerializerAdapter<>(serializer);
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.serializer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import io.github.gonalez.zplayersync.ObjectSerializerException;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional compression of serialized values before they are stored.
+ *
+ * <p>Stored payloads start with a one-byte header telling whether the rest is raw or compressed,
+ * so both can coexist and the codec can be changed at any time. Payloads without a header, stored
+ * by older versions, are returned as they are by {@link #decompress(byte[])}.
+ */
+public class PayloadCompression {
+  /** Header of payloads stored without compression. */
+  public static final byte RAW_HEADER = 0;
+  /** Header of payloads compressed with deflate, followed by the uncompressed length. */
+  public static final byte DEFLATE_HEADER = 1;
+
+  // Payloads claiming to be larger are corrupted, no value comes close to it
+  private static final int MAX_INFLATED_BYTES = 64 * 1024 * 1024;
+  private static final int INITIAL_INFLATE_BYTES = 256;
+
+  private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+  private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+  /** Supported compression codecs. */
+  public enum Codec {
+    NONE,
+    DEFLATE,
+  }
+
+  private final LongAdder uncompressedBytes = new LongAdder();
+  private final LongAdder storedBytes = new LongAdder();
+
+  private final Codec codec;
+  private final int threshold;
+
+  /**
+   * @param codec the codec used to compress payloads.
+   * @param threshold the minimum size in bytes of a payload to be compressed.
+   */
+  public PayloadCompression(Codec codec, int threshold) {
+    checkArgument(threshold >= 0, "threshold must not be negative");
+    this.codec = checkNotNull(codec);
+    this.threshold = threshold;
+  }
+
+  public Codec getCodec() {
+    return codec;
+  }
+
+  /**
+   * Compresses the given payload if it is at least as large as the threshold, payloads are
+   * stored raw if they are smaller or if compressing them does not reduce their size.
+   */
+  public byte[] compress(byte[] data) {
+    byte[] payload = null;
+    if (codec == Codec.DEFLATE && data.length >= threshold) {
+      payload = deflate(data);
+    }
+    if (payload == null) {
+      payload = new byte[data.length + 1];
+      payload[0] = RAW_HEADER;
+      System.arraycopy(data, 0, payload, 1, data.length);
+    }
+    uncompressedBytes.add(data.length);
+    storedBytes.add(payload.length);
+    return payload;
+  }
+
+  /** @return the original payload of the given stored payload. */
+  public static byte[] decompress(byte[] data) throws ObjectSerializerException {
+    if (data.length == 0) {
+      return data;
+    }
+    switch (data[0]) {
+      case RAW_HEADER:
+        return Arrays.copyOfRange(data, 1, data.length);
+      case DEFLATE_HEADER:
+        return inflate(data);
+      default:
+        // Stored without header by older versions
+        return data;
+    }
+  }
+
+  /**
+   * @return the ratio of the bytes stored to the bytes of the payloads compressed so far, or
+   * {@code 1} if no payload has been compressed yet.
+   */
+  public double compressionRatio() {
+    long uncompressed = uncompressedBytes.sum();
+    return uncompressed == 0 ? 1 : (double) storedBytes.sum() / uncompressed;
+  }
+
+  @Nullable
+  private static byte[] deflate(byte[] data) {
+    if (data.length <= 5) {
+      return null;
+    }
+    Deflater deflater = DEFLATER.get();
+    deflater.reset();
+    deflater.setInput(data);
+    deflater.finish();
+    // Only worth it if the compressed payload is smaller than the raw one
+    byte[] payload = new byte[data.length];
+    ByteBuffer.wrap(payload).put(DEFLATE_HEADER).putInt(data.length);
+    int offset = 5;
+    while (!deflater.finished() && offset < payload.length) {
+      offset += deflater.deflate(payload, offset, payload.length - offset);
+    }
+    return deflater.finished() ? Arrays.copyOf(payload, offset) : null;
+  }
+
+  private static byte[] inflate(byte[] data) {
+    if (data.length < 5) {
+      throw new ObjectSerializerException("Truncated compressed payload");
+    }
+    int length = ByteBuffer.wrap(data, 1, 4).getInt();
+    if (length < 0 || length > MAX_INFLATED_BYTES) {
+      throw new ObjectSerializerException("Corrupted compressed payload, invalid length " + length);
+    }
+    // The length in the header is not trusted to size the buffer, it grows as the payload is inflated
+    byte[] output = new byte[Math.min(length, Math.max(INITIAL_INFLATE_BYTES, (data.length - 5) * 4))];
+    Inflater inflater = INFLATER.get();
+    inflater.reset();
+    inflater.setInput(data, 5, data.length - 5);
+    try {
+      int offset = 0;
+      while (!inflater.finished()) {
+        if (offset == output.length) {
+          if (offset == length) {
+            // Anything left to inflate is past the length in the header
+            if (inflater.inflate(new byte[1]) > 0) {
+              throw new ObjectSerializerException("Corrupted compressed payload, larger than its length");
+            }
+            break;
+          }
+          output = Arrays.copyOf(output, (int) Math.min(length, output.length * 2L));
+        }
+        int inflated = inflater.inflate(output, offset, output.length - offset);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        offset += inflated;
+      }
+      if (offset != length) {
+        throw new ObjectSerializerException("Corrupted compressed payload, inflated "
+            + offset + " of " + length + " bytes");
+      }
+      if (!inflater.finished()) {
+        throw new ObjectSerializerException("Truncated compressed payload");
+      }
+    } catch (DataFormatException e) {
+      throw new ObjectSerializerException(e);
+    }
+    return output;
+  }
+}
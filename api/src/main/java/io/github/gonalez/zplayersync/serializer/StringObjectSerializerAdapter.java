@@ -0,0 +1,52 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.serializer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import io.github.gonalez.zplayersync.ObjectSerializerException;
+
+import java.nio.charset.StandardCharsets;
+
+/** Adapts a {@code String} based {@link ObjectSerializer} to a {@link BinaryObjectSerializer}. */
+public class StringObjectSerializerAdapter<T> implements BinaryObjectSerializer<T> {
+  private final ObjectSerializer<T> serializer;
+
+  public StringObjectSerializerAdapter(ObjectSerializer<T> serializer) {
+    this.serializer = checkNotNull(serializer);
+  }
+
+  @Override
+  public byte[] serializeBytes(T value) throws ObjectSerializerException {
+    String serializedValue = serializer.serialize(value);
+    return serializedValue == null ? null : serializedValue.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public T deserializeBytes(byte[] data) throws ObjectSerializerException {
+    return serializer.deserialize(new String(data, StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public String serialize(T value) throws ObjectSerializerException {
+    return serializer.serialize(value);
+  }
+
+  @Override
+  public T deserialize(String data) throws ObjectSerializerException {
+    return serializer.deserialize(data);
+  }
+}
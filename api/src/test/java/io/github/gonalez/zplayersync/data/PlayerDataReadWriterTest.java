@@ -0,0 +1,114 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+public class PlayerDataReadWriterTest {
+  @Test
+  public void writeAsyncWaitsForTheFutureOfTheWrite() throws Exception {
+    CompletableFuture<Void> groupCommit = new CompletableFuture<>();
+    PlayerDataReadWriter readWriter = new PlayerDataReadWriter() {
+      @Override
+      public void open() {}
+
+      @Override
+      public void close() {}
+
+      @Override
+      public PlayerSnapshot read(UUID playerUUID) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void write(UUID playerUUID) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Supplier<CompletableFuture<Void>> captureWriteAsync(UUID playerUUID) {
+        return () -> groupCommit;
+      }
+    };
+
+    CompletableFuture<Void> written = readWriter.writeAsync(UUID.randomUUID(), Runnable::run);
+    assertFalse(written.isDone());
+
+    groupCommit.complete(null);
+    written.get(1, TimeUnit.SECONDS);
+    assertTrue(written.isDone());
+  }
+
+  @Test
+  public void writeAsyncFailsWithTheWrite() {
+    RuntimeException failure = new RuntimeException("unreachable");
+    PlayerDataReadWriter readWriter = new PlayerDataReadWriter() {
+      @Override
+      public void open() {}
+
+      @Override
+      public void close() {}
+
+      @Override
+      public PlayerSnapshot read(UUID playerUUID) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void write(UUID playerUUID) {
+        throw failure;
+      }
+    };
+
+    CompletableFuture<Void> written = readWriter.writeAsync(UUID.randomUUID(), Runnable::run);
+    ExecutionException exception = assertThrows(ExecutionException.class, () -> written.get(1, TimeUnit.SECONDS));
+    assertEquals(failure, exception.getCause());
+  }
+
+  @Test
+  public void flushRejectsANonPositiveParallelism() {
+    PlayerDataReadWriter readWriter = new PlayerDataReadWriter() {
+      @Override
+      public void open() {}
+
+      @Override
+      public void close() {}
+
+      @Override
+      public PlayerSnapshot read(UUID playerUUID) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void write(UUID playerUUID) {}
+    };
+
+    assertThrows(IllegalArgumentException.class,
+        () -> readWriter.flush(ImmutableList.of(UUID.randomUUID()), 0, 1, TimeUnit.SECONDS));
+  }
+}
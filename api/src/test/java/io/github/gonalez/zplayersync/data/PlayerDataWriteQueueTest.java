@@ -0,0 +1,267 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+public class PlayerDataWriteQueueTest {
+  private static final Logger LOGGER = Logger.getLogger(PlayerDataWriteQueueTest.class.getName());
+
+  private final AtomicBoolean mainThread = new AtomicBoolean();
+  private PlayerDataWriteQueue writeQueue;
+
+  @AfterEach
+  public void tearDown() {
+    if (writeQueue != null) {
+      writeQueue.shutdown(5, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void runsWritesOfTheSamePlayerInOrder() throws Exception {
+    writeQueue = new PlayerDataWriteQueue(8, 1000, LOGGER, mainThread::get);
+    UUID playerUUID = UUID.randomUUID();
+    List<Integer> writes = Collections.synchronizedList(new ArrayList<>());
+    CompletableFuture<Void> last = null;
+    for (int i = 0; i < 200; i++) {
+      int write = i;
+      last = writeQueue.submit(playerUUID, () -> {
+        // Later writes would overtake this one if they were run in parallel
+        if (write % 10 == 0) {
+          sleep(1);
+        }
+        writes.add(write);
+      });
+    }
+    last.get(5, TimeUnit.SECONDS);
+
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      expected.add(i);
+    }
+    assertEquals(expected, writes);
+  }
+
+  @Test
+  public void runsTheNextWriteOfAPlayerEvenIfThePreviousOneFailed() throws Exception {
+    writeQueue = new PlayerDataWriteQueue(2, 10, LOGGER, mainThread::get);
+    UUID playerUUID = UUID.randomUUID();
+    writeQueue.submit(playerUUID, () -> {
+      throw new IllegalStateException("Write failed");
+    });
+    AtomicBoolean written = new AtomicBoolean();
+    writeQueue.submit(playerUUID, () -> written.set(true)).get(5, TimeUnit.SECONDS);
+    assertTrue(written.get());
+  }
+
+  @Test
+  public void runsWritesOfDifferentPlayersInParallel() throws Exception {
+    writeQueue = new PlayerDataWriteQueue(2, 10, LOGGER, mainThread::get);
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    Runnable write = () -> {
+      bothStarted.countDown();
+      await(bothStarted);
+    };
+    CompletableFuture.allOf(
+        writeQueue.submit(UUID.randomUUID(), write),
+        writeQueue.submit(UUID.randomUUID(), write))
+        .get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void pendingWriteCompletesAfterTheQueuedWritesOfThePlayer() throws Exception {
+    writeQueue = new PlayerDataWriteQueue(2, 10, LOGGER, mainThread::get);
+    UUID playerUUID = UUID.randomUUID();
+    CountDownLatch release = new CountDownLatch(1);
+    writeQueue.submit(playerUUID, () -> await(release));
+
+    CompletableFuture<Void> pendingWrite = writeQueue.pendingWrite(playerUUID);
+    assertFalse(pendingWrite.isDone());
+    assertTrue(writeQueue.pendingWrite(UUID.randomUUID()).isDone());
+    release.countDown();
+    pendingWrite.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void asyncWritesArePendingUntilTheirFutureCompletes() throws Exception {
+    writeQueue = new PlayerDataWriteQueue(2, 10, LOGGER, mainThread::get);
+    UUID playerUUID = UUID.randomUUID();
+    CompletableFuture<Void> save = new CompletableFuture<>();
+    CompletableFuture<Void> first = writeQueue.submitAsync(playerUUID, () -> save);
+    AtomicBoolean secondWritten = new AtomicBoolean();
+    CompletableFuture<Void> second = writeQueue.submit(playerUUID, () -> secondWritten.set(true));
+
+    sleep(50);
+    assertFalse(first.isDone());
+    assertFalse(secondWritten.get());
+    assertFalse(writeQueue.pendingWrite(playerUUID).isDone());
+
+    save.complete(null);
+    second.get(5, TimeUnit.SECONDS);
+    assertTrue(first.isDone());
+    assertTrue(secondWritten.get());
+  }
+
+  @Test
+  public void shutdownWaitsForTheFuturesOfAsyncWrites() {
+    writeQueue = new PlayerDataWriteQueue(2, 10, LOGGER, mainThread::get);
+    CompletableFuture<Void> save = new CompletableFuture<>();
+    writeQueue.submitAsync(UUID.randomUUID(), () -> save);
+
+    assertFalse(writeQueue.shutdown(50, TimeUnit.MILLISECONDS));
+    save.complete(null);
+    assertEquals(0, writeQueue.pendingPlayers());
+  }
+
+  @Test
+  public void shutdownDrainsThePendingWrites() {
+    writeQueue = new PlayerDataWriteQueue(2, 100, LOGGER, mainThread::get);
+    List<UUID> written = Collections.synchronizedList(new ArrayList<>());
+    for (int i = 0; i < 20; i++) {
+      UUID playerUUID = UUID.randomUUID();
+      writeQueue.submit(playerUUID, () -> {
+        sleep(5);
+        written.add(playerUUID);
+      });
+    }
+
+    assertTrue(writeQueue.shutdown(5, TimeUnit.SECONDS));
+    assertEquals(20, written.size());
+    assertEquals(0, writeQueue.pendingPlayers());
+    assertThrows(RejectedExecutionException.class, () -> writeQueue.submit(UUID.randomUUID(), () -> {}));
+  }
+
+  @Test
+  public void shutdownGivesUpOnceTheTimeoutElapses() {
+    writeQueue = new PlayerDataWriteQueue(1, 10, LOGGER, mainThread::get);
+    CountDownLatch release = new CountDownLatch(1);
+    writeQueue.submit(UUID.randomUUID(), () -> await(release));
+
+    assertFalse(writeQueue.shutdown(50, TimeUnit.MILLISECONDS));
+    release.countDown();
+  }
+
+  @Test
+  public void doesNotBlockTheMainThreadWhenFull() throws Exception {
+    writeQueue = new PlayerDataWriteQueue(1, 1, LOGGER, mainThread::get);
+    CountDownLatch release = new CountDownLatch(1);
+    writeQueue.submit(UUID.randomUUID(), () -> await(release));
+
+    mainThread.set(true);
+    CompletableFuture<Void> overLimit = writeQueue.submit(UUID.randomUUID(), () -> {});
+    assertFalse(overLimit.isDone());
+    release.countDown();
+    overLimit.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void trySubmitSkipsTheWriteWhenFull() throws Exception {
+    writeQueue = new PlayerDataWriteQueue(1, 1, LOGGER, mainThread::get);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<Void> first = writeQueue.submit(UUID.randomUUID(), () -> await(release));
+
+    AtomicBoolean written = new AtomicBoolean();
+    assertNull(writeQueue.trySubmitAsync(UUID.randomUUID(), () -> {
+      written.set(true);
+      return CompletableFuture.completedFuture(null);
+    }));
+    release.countDown();
+    first.get(5, TimeUnit.SECONDS);
+    assertFalse(written.get());
+
+    // The slot is freed right after the first write completes
+    CompletableFuture<Void> next = null;
+    for (int i = 0; i < 100 && next == null; i++) {
+      next = writeQueue.trySubmitAsync(UUID.randomUUID(), () -> CompletableFuture.completedFuture(null));
+      if (next == null) {
+        sleep(10);
+      }
+    }
+    assertNotNull(next);
+  }
+
+  @Test
+  public void reservesTheSlotBeforeTheWriteIsSubmitted() throws Exception {
+    writeQueue = new PlayerDataWriteQueue(1, 1, LOGGER, mainThread::get);
+    assertTrue(writeQueue.tryReserve());
+    assertFalse(writeQueue.tryReserve());
+    assertNull(writeQueue.trySubmitAsync(UUID.randomUUID(), () -> CompletableFuture.completedFuture(null)));
+
+    // A reservation that is not used frees its slot
+    writeQueue.cancelReservation();
+    assertTrue(writeQueue.tryReserve());
+    writeQueue.submitReservedAsync(UUID.randomUUID(), () -> CompletableFuture.completedFuture(null))
+        .get(5, TimeUnit.SECONDS);
+
+    // The slot of the write is freed once it completes
+    boolean reserved = false;
+    for (int i = 0; i < 100 && !reserved; i++) {
+      reserved = writeQueue.tryReserve();
+      if (!reserved) {
+        sleep(10);
+      }
+    }
+    assertTrue(reserved);
+  }
+
+  @Test
+  public void rejectsReservedWritesAfterShutdown() {
+    writeQueue = new PlayerDataWriteQueue(1, 1, LOGGER, mainThread::get);
+    assertTrue(writeQueue.tryReserve());
+    writeQueue.shutdown(5, TimeUnit.SECONDS);
+
+    assertThrows(RejectedExecutionException.class,
+        () -> writeQueue.submitReservedAsync(UUID.randomUUID(), () -> CompletableFuture.completedFuture(null)));
+    assertThrows(RejectedExecutionException.class, () -> writeQueue.tryReserve());
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      if (!latch.await(5, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Timed out");
+      }
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
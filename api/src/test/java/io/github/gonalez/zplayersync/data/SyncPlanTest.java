@@ -0,0 +1,176 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import io.github.gonalez.zplayersync.metrics.SyncMetrics;
+import io.github.gonalez.zplayersync.serializer.BinaryObjectSerializer;
+import io.github.gonalez.zplayersync.serializer.PayloadCompression;
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SyncPlanTest {
+  private static final BinaryObjectSerializer<String> STRING_SERIALIZER = new BinaryObjectSerializer<String>() {
+    @Override
+    public byte[] serializeBytes(String value) {
+      return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String deserializeBytes(byte[] data) {
+      return new String(data, StandardCharsets.UTF_8);
+    }
+  };
+  private static final PayloadCompression DEFLATE = new PayloadCompression(PayloadCompression.Codec.DEFLATE, 0);
+
+  private final PlayerValueRegistry registry = new PlayerValueRegistry();
+  private final Map<Class<?>, BinaryObjectSerializer<?>> serializers = new ConcurrentHashMap<>();
+  private final SyncPlan.Binder binder = new SyncPlan.Binder() {
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> BinaryObjectSerializer<T> findSerializerOfType(Class<T> type) {
+      return (BinaryObjectSerializer<T>) serializers.get(type);
+    }
+
+    @Override
+    public PayloadCompression findPayloadCompression(String identifier) {
+      return DEFLATE;
+    }
+  };
+
+  @Test
+  public void bindsOnlyTheValuesWithASerializer() {
+    PlayerValueKey<String> name = registry.register(new TestValueApi<>("name", String.class));
+    registry.register(new TestValueApi<>("level", Integer.class));
+    serializers.put(String.class, STRING_SERIALIZER);
+
+    SyncPlan plan = SyncPlan.bind(registry.keys(), binder);
+
+    assertEquals(2, plan.keys().size());
+    assertEquals(1, plan.entries().size());
+    SyncPlan.Entry<?> entry = plan.entries().get(0);
+    assertSame(name, entry.key());
+    assertSame(STRING_SERIALIZER, entry.serializer());
+    assertSame(DEFLATE, entry.compression());
+  }
+
+  @Test
+  public void bindsValuesRegisteredLaterOnceRebuilt() {
+    registry.register(new TestValueApi<>("name", String.class));
+    serializers.put(String.class, STRING_SERIALIZER);
+    SyncPlan.Holder<SyncPlan> holder = new SyncPlan.Holder<>(() -> SyncPlan.bind(registry.keys(), binder));
+    SyncPlan plan = holder.get();
+
+    PlayerValueKey<String> title = registry.register(new TestValueApi<>("title", String.class));
+    assertSame(plan, holder.get());
+    assertEquals(1, holder.get().entries().size());
+
+    holder.rebuild();
+    assertEquals(2, holder.get().entries().size());
+    assertSame(title, holder.get().entries().get(1).key());
+  }
+
+  @Test
+  public void bindsSerializersRegisteredLaterOnceRebuilt() {
+    registry.register(new TestValueApi<>("name", String.class));
+    SyncPlan.Holder<SyncPlan> holder = new SyncPlan.Holder<>(() -> SyncPlan.bind(registry.keys(), binder));
+    assertEquals(0, holder.get().entries().size());
+
+    serializers.put(String.class, STRING_SERIALIZER);
+    assertEquals(0, holder.get().entries().size());
+
+    holder.rebuild();
+    assertEquals(1, holder.get().entries().size());
+  }
+
+  @Test
+  public void deserializesTheSerializedValues() {
+    UUID uuid = UUID.randomUUID();
+    Player player = mock(Player.class);
+    when(player.getUniqueId()).thenReturn(uuid);
+    PlayerValueKey<String> name = registry.register(new TestValueApi<>("name", String.class));
+    PlayerValueKey<Integer> level = registry.register(new TestValueApi<>("level", Integer.class));
+    serializers.put(String.class, STRING_SERIALIZER);
+    name.valueApi().set(player, "Steve");
+    level.valueApi().set(player, 30);
+    SyncPlan plan = SyncPlan.bind(registry.keys(), binder);
+
+    PlayerSnapshot snapshot = plan.capture(player);
+    // Values without a serializer are not captured
+    assertNull(snapshot.get(level));
+    SyncPlan.Entry<?> entry = plan.entries().get(0);
+    byte[] serializedValue = entry.serialize(uuid, snapshot, SyncMetrics.NOOP);
+    assertArrayEquals("Steve".getBytes(StandardCharsets.UTF_8), serializedValue);
+
+    PlayerSnapshot.Builder deserialized = PlayerSnapshot.builder(plan.keys());
+    entry.deserialize(uuid, deserialized, serializedValue, SyncMetrics.NOOP);
+    assertEquals("Steve", deserialized.build().get(name));
+  }
+
+  @Test
+  public void fingerprintsTellChangedValuesApart() {
+    byte[] steve = "Steve".getBytes(StandardCharsets.UTF_8);
+    assertEquals(SyncPlan.fingerprint(steve), SyncPlan.fingerprint(steve.clone()));
+    assertNotEquals(SyncPlan.fingerprint(steve), SyncPlan.fingerprint("Alex".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /** Value of the players kept in memory, keyed by their uuid. */
+  private static class TestValueApi<T> implements PlayerDataApi<T> {
+    private final String identifier;
+    private final Class<T> type;
+    private final Map<UUID, T> values = new ConcurrentHashMap<>();
+
+    TestValueApi(String identifier, Class<T> type) {
+      this.identifier = identifier;
+      this.type = type;
+    }
+
+    @Override
+    public Class<T> type() {
+      return type;
+    }
+
+    @Override
+    public String identifier() {
+      return identifier;
+    }
+
+    @Override
+    public T read(Player input) {
+      return values.get(input.getUniqueId());
+    }
+
+    @Override
+    public void set(Player input, T value) {
+      values.put(input.getUniqueId(), value);
+    }
+  }
+}
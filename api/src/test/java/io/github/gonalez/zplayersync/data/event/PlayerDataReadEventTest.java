@@ -0,0 +1,63 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data.event;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.github.gonalez.zplayersync.data.PlayerDataApi;
+import io.github.gonalez.zplayersync.data.PlayerSnapshot;
+import io.github.gonalez.zplayersync.data.PlayerValueKey;
+import io.github.gonalez.zplayersync.data.PlayerValueRegistry;
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+public class PlayerDataReadEventTest {
+  @Test
+  @SuppressWarnings({"deprecation", "unchecked"})
+  public void exposesTheSnapshotAsValueApis() {
+    PlayerValueRegistry registry = new PlayerValueRegistry();
+    PlayerValueKey<Integer> levelKey = registry.register(valueApi("level"));
+    registry.register(valueApi("health"));
+    PlayerSnapshot snapshot = PlayerSnapshot.builder(registry.keys()).put(levelKey, 30).build();
+    PlayerDataReadEvent event = new PlayerDataReadEvent(UUID.randomUUID(), snapshot);
+
+    List<PlayerDataApi<?>> valueApis = event.getValueApis();
+    assertEquals(1, valueApis.size());
+    PlayerDataApi<Integer> valueApi = (PlayerDataApi<Integer>) valueApis.get(0);
+    assertEquals("level", valueApi.identifier());
+    assertTrue(valueApi.isStandalone());
+    Player player = mock(Player.class);
+    assertEquals(30, valueApi.read(player));
+
+    valueApi.set(player);
+    verify(levelKey.valueApi()).set(player, 30);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static PlayerDataApi<Integer> valueApi(String identifier) {
+    PlayerDataApi<Integer> valueApi = mock(PlayerDataApi.class);
+    when(valueApi.identifier()).thenReturn(identifier);
+    when(valueApi.type()).thenReturn(Integer.class);
+    return valueApi;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+public class FlightRecorderSyncTracerTest {
+  @TempDir
+  Path directory;
+
+  @Test
+  public void eventsSpanTheirStage() throws Exception {
+    SyncTracer tracer = SyncTracer.flightRecorder();
+    UUID uuid = UUID.randomUUID();
+    Path file = directory.resolve("sync.jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable("zplayersync.ValueStage");
+      recording.enable("zplayersync.Database");
+      recording.start();
+
+      SyncTracer.ValueStageSpan valueStageSpan = tracer.startValueStage(uuid, "health", SyncStage.SERIALIZE);
+      Thread.sleep(20);
+      valueStageSpan.finish(12);
+      SyncTracer.DatabaseSpan databaseSpan = tracer.startDatabase(uuid, true);
+      Thread.sleep(20);
+      databaseSpan.finish(3, 256);
+
+      recording.stop();
+      recording.dump(file);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+    assertEquals(2, events.size());
+    RecordedEvent valueStage = events.stream()
+        .filter(event -> event.getEventType().getName().equals("zplayersync.ValueStage"))
+        .findFirst().get();
+    assertEquals(uuid.toString(), valueStage.getString("player"));
+    assertEquals("health", valueStage.getString("value"));
+    assertEquals("SERIALIZE", valueStage.getString("stage"));
+    assertEquals(12, valueStage.getLong("bytes"));
+    assertTrue(valueStage.getDuration().compareTo(Duration.ofMillis(20)) >= 0, "duration " + valueStage.getDuration());
+    RecordedEvent database = events.stream()
+        .filter(event -> event.getEventType().getName().equals("zplayersync.Database"))
+        .findFirst().get();
+    assertTrue(database.getBoolean("write"));
+    assertEquals(3, database.getInt("valueCount"));
+    assertEquals(256, database.getLong("bytes"));
+    assertTrue(database.getDuration().compareTo(Duration.ofMillis(20)) >= 0, "duration " + database.getDuration());
+  }
+}
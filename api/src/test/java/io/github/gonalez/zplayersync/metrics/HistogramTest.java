@@ -0,0 +1,95 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class HistogramTest {
+  @Test
+  public void countsSmallValuesExactly() {
+    for (int value = 0; value < 16; value++) {
+      int bucket = Histogram.bucketOf(value);
+      assertEquals(value, bucket);
+      assertEquals(value, Histogram.lowerBoundOf(bucket));
+      assertEquals(value, Histogram.upperBoundOf(bucket));
+    }
+  }
+
+  @Test
+  public void bucketsContainTheirValues() {
+    long[] values = {16, 17, 31, 32, 33, 1000, 123_456_789, 1L << 40, (1L << 40) + 1, Long.MAX_VALUE};
+    for (long value : values) {
+      int bucket = Histogram.bucketOf(value);
+      assertTrue(Histogram.lowerBoundOf(bucket) <= value, "lower bound of " + value);
+      assertTrue(Histogram.upperBoundOf(bucket) >= value, "upper bound of " + value);
+    }
+  }
+
+  @Test
+  public void bucketsAreContiguous() {
+    int lastBucket = Histogram.bucketOf(Long.MAX_VALUE);
+    for (int bucket = 0; bucket < lastBucket; bucket++) {
+      assertEquals(Histogram.upperBoundOf(bucket) + 1, Histogram.lowerBoundOf(bucket + 1), "bucket " + bucket);
+      assertEquals(bucket, Histogram.bucketOf(Histogram.lowerBoundOf(bucket)));
+      assertEquals(bucket, Histogram.bucketOf(Histogram.upperBoundOf(bucket)));
+    }
+    assertEquals(Long.MAX_VALUE, Histogram.upperBoundOf(lastBucket));
+  }
+
+  @Test
+  public void bucketWidthIsWithinSixPercentOfTheValue() {
+    for (int bucket = 16; bucket < Histogram.bucketOf(Long.MAX_VALUE); bucket++) {
+      long lowerBound = Histogram.lowerBoundOf(bucket);
+      long width = Histogram.upperBoundOf(bucket) - lowerBound + 1;
+      assertTrue(width <= lowerBound / 16, "bucket " + bucket);
+    }
+  }
+
+  @Test
+  public void computesPercentiles() {
+    Histogram histogram = new Histogram();
+    assertEquals(0, histogram.getP50());
+    for (int value = 1; value <= 100; value++) {
+      histogram.record(value);
+    }
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(50.5, histogram.getMean(), 0.0001);
+    assertEquals(100, histogram.getMax());
+    assertBetween(50, histogram.getP50(), 0.07);
+    assertBetween(95, histogram.getP95(), 0.07);
+    assertBetween(99, histogram.getP99(), 0.07);
+    assertEquals(100, histogram.percentile(1));
+  }
+
+  @Test
+  public void recordsNegativeValuesAsZero() {
+    Histogram histogram = new Histogram();
+    histogram.record(-5);
+
+    assertEquals(1, histogram.getCount());
+    assertEquals(0, histogram.getMax());
+    assertEquals(0, histogram.getP99());
+  }
+
+  private static void assertBetween(long expected, long actual, double error) {
+    assertTrue(actual >= expected && actual <= expected * (1 + error),
+        "expected about " + expected + " but was " + actual);
+  }
+}
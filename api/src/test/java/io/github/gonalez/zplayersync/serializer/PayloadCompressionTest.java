@@ -0,0 +1,74 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.serializer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.github.gonalez.zplayersync.ObjectSerializerException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class PayloadCompressionTest {
+  private final PayloadCompression compression = new PayloadCompression(PayloadCompression.Codec.DEFLATE, 0);
+
+  @Test
+  public void inflatesPayloadsLargerThanTheInitialBuffer() {
+    byte[] data = new byte[100_000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 7);
+    }
+
+    byte[] payload = compression.compress(data);
+    assertEquals(PayloadCompression.DEFLATE_HEADER, payload[0]);
+    assertArrayEquals(data, PayloadCompression.decompress(payload));
+  }
+
+  @Test
+  public void rejectsAnUntrustedLength() {
+    byte[] payload = compression.compress(new byte[1000]);
+    ByteBuffer.wrap(payload, 1, 4).putInt(Integer.MAX_VALUE);
+
+    assertThrows(ObjectSerializerException.class, () -> PayloadCompression.decompress(payload));
+  }
+
+  @Test
+  public void rejectsAPayloadLargerThanItsLength() {
+    byte[] payload = compression.compress(new byte[1000]);
+    ByteBuffer.wrap(payload, 1, 4).putInt(999);
+
+    assertThrows(ObjectSerializerException.class, () -> PayloadCompression.decompress(payload));
+  }
+
+  @Test
+  public void rejectsAPayloadSmallerThanItsLength() {
+    byte[] payload = compression.compress(new byte[1000]);
+    ByteBuffer.wrap(payload, 1, 4).putInt(1001);
+
+    assertThrows(ObjectSerializerException.class, () -> PayloadCompression.decompress(payload));
+  }
+
+  @Test
+  public void rejectsATruncatedPayload() {
+    byte[] payload = compression.compress(new byte[1000]);
+
+    assertThrows(ObjectSerializerException.class,
+        () -> PayloadCompression.decompress(Arrays.copyOf(payload, payload.length - 2)));
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.benchmark;
+
+import com.google.common.base.Defaults;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemFactory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Minimal in-memory implementation of the parts of the server used by the serializers and the
+ * values of players, so they can be benchmarked without running a server.
+ *
+ * <p>Inventories are backed by an array of items and items have no meta, items with meta can
+ * only be created by a real server implementation.
+ */
+final class BenchmarkServer {
+  private static final Map<String, World> WORLDS = new HashMap<>();
+
+  private BenchmarkServer() {}
+
+  /** Installs the benchmark server as the server of {@link Bukkit}, if not installed yet. */
+  static synchronized void install() {
+    if (Bukkit.getServer() != null) {
+      return;
+    }
+    Logger logger = Logger.getLogger(BenchmarkServer.class.getName());
+    ItemFactory itemFactory = proxy(ItemFactory.class, (method, args) -> {
+      switch (method.getName()) {
+        case "equals":
+          return args.length == 2 ? args[0] == args[1] : null;
+        default:
+          return null;
+      }
+    });
+    Bukkit.setServer(proxy(Server.class, (method, args) -> {
+      switch (method.getName()) {
+        case "getLogger":
+          return logger;
+        case "getName":
+        case "getVersion":
+        case "getBukkitVersion":
+          return "benchmark";
+        case "getItemFactory":
+          return itemFactory;
+        case "createInventory":
+          return createInventory(new ItemStack[(Integer) args[args.length - 1]]);
+        case "getWorld":
+          return args[0] instanceof String ? world((String) args[0]) : null;
+        default:
+          return null;
+      }
+    }));
+  }
+
+  /** @return the world with the given name, created the first time it is requested. */
+  static synchronized World world(String name) {
+    return WORLDS.computeIfAbsent(name, worldName -> {
+      UUID uid = UUID.nameUUIDFromBytes(worldName.getBytes());
+      return proxy(World.class, (method, args) -> {
+        switch (method.getName()) {
+          case "getName":
+            return worldName;
+          case "getUID":
+            return uid;
+          default:
+            return null;
+        }
+      });
+    });
+  }
+
+  /** @return an inventory backed by the given array of items. */
+  static Inventory createInventory(ItemStack[] contents) {
+    return proxy(Inventory.class, new ArrayInventory(contents));
+  }
+
+  /** @return an online player with the given location and the given items in its inventory. */
+  static Player createPlayer(UUID uuid, Location location, ItemStack[] contents) {
+    PlayerInventory inventory = proxy(PlayerInventory.class, new ArrayInventory(contents));
+    return proxy(Player.class, (method, args) -> {
+      switch (method.getName()) {
+        case "getUniqueId":
+          return uuid;
+        case "getName":
+          return uuid.toString().substring(0, 16);
+        case "getLocation":
+          return location.clone();
+        case "getInventory":
+          return inventory;
+        case "isOnline":
+          return true;
+        default:
+          return null;
+      }
+    });
+  }
+
+  /** Handles the calls of a proxy, calls not handled return the default value of their type. */
+  private interface Handler {
+    Object invoke(Method method, Object[] args) throws Throwable;
+  }
+
+  /** Handler of an inventory backed by an array of items. */
+  private static class ArrayInventory implements Handler {
+    private ItemStack[] contents;
+
+    ArrayInventory(ItemStack[] contents) {
+      this.contents = contents;
+    }
+
+    @Override
+    public Object invoke(Method method, Object[] args) {
+      switch (method.getName()) {
+        case "getSize":
+          return contents.length;
+        case "getContents":
+          return contents.clone();
+        case "setContents":
+          contents = ((ItemStack[]) args[0]).clone();
+          return null;
+        case "getItem":
+          return contents[(Integer) args[0]];
+        case "setItem":
+          contents[(Integer) args[0]] = (ItemStack) args[1];
+          return null;
+        default:
+          return null;
+      }
+    }
+  }
+
+  private static <T> T proxy(Class<T> type, Handler handler) {
+    InvocationHandler invocationHandler = (proxy, method, args) -> {
+      Object[] arguments = args == null ? new Object[0] : args;
+      if (method.getDeclaringClass() == Object.class) {
+        switch (method.getName()) {
+          case "equals":
+            return proxy == arguments[0];
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          default:
+            return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+        }
+      }
+      Object result = handler.invoke(method, arguments);
+      return result == null ? Defaults.defaultValue(method.getReturnType()) : result;
+    };
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, invocationHandler));
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.benchmark;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+/** Values of a typical player, used by the benchmarks. */
+final class BenchmarkValues {
+  static final int PLAYER_INVENTORY_SIZE = 36;
+
+  private BenchmarkValues() {}
+
+  /**
+   * @return the items of a player in survival: tools and food in the hotbar, stacks of blocks
+   *     and materials in part of the storage slots and the rest empty.
+   */
+  static ItemStack[] playerInventoryContents() {
+    ItemStack[] contents = new ItemStack[PLAYER_INVENTORY_SIZE];
+    contents[0] = new ItemStack(Material.DIAMOND_SWORD, 1, (short) 112);
+    contents[1] = new ItemStack(Material.IRON_PICKAXE, 1, (short) 37);
+    contents[2] = new ItemStack(Material.BOW, 1, (short) 5);
+    contents[3] = new ItemStack(Material.COOKED_BEEF, 23);
+    contents[4] = new ItemStack(Material.TORCH, 48);
+    contents[5] = new ItemStack(Material.WATER_BUCKET, 1);
+    contents[8] = new ItemStack(Material.COBBLESTONE, 64);
+    for (int i = 9; i < 18; i++) {
+      contents[i] = new ItemStack(Material.DIRT, 64);
+    }
+    contents[18] = new ItemStack(Material.LOG, 32, (short) 2);
+    contents[19] = new ItemStack(Material.DIAMOND, 7);
+    contents[20] = new ItemStack(Material.ARROW, 64);
+    contents[21] = new ItemStack(Material.STONE, 40);
+    return contents;
+  }
+
+  static Location location() {
+    return new Location(BenchmarkServer.world("world"), 152.73, 64, -2381.5, 93.4f, 12.5f);
+  }
+}
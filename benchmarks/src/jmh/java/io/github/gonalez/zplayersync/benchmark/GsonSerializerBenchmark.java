@@ -0,0 +1,88 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import io.github.gonalez.zplayersync.PlayerSyncPluginModule;
+import io.github.gonalez.zplayersync.data.PlayerHandoff;
+import io.github.gonalez.zplayersync.serializer.BinaryObjectSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Throughput of the serializer built from gson by the plugin module for values without a
+ * registered serializer, such as the values added by other plugins.
+ */
+@State(Scope.Benchmark)
+public class GsonSerializerBenchmark {
+  /** A value of the kind other plugins typically store. */
+  public static class PlayerStats {
+    String rank;
+    long balance;
+    int kills;
+    int deaths;
+    double playtimeHours;
+    List<String> unlockedKits = new ArrayList<>();
+    Map<String, Integer> questProgress = new LinkedHashMap<>();
+  }
+
+  private BinaryObjectSerializer<PlayerStats> serializer;
+  private PlayerStats stats;
+  private byte[] serializedStats;
+
+  @Setup
+  public void setUp() {
+    PlayerSyncPluginModule pluginModule = new PlayerSyncPluginModule(null, new Gson(), ImmutableList.of(),
+        ImmutableMap.of(), false, new PlayerHandoff(), 0, 32, null, 0, 0) {
+      @Override
+      public void init() {
+        serializer = findSerializer(PlayerStats.class);
+      }
+    };
+    pluginModule.init();
+
+    stats = new PlayerStats();
+    stats.rank = "veteran";
+    stats.balance = 1_254_300;
+    stats.kills = 812;
+    stats.deaths = 433;
+    stats.playtimeHours = 371.25;
+    for (int i = 0; i < 12; i++) {
+      stats.unlockedKits.add("kit_" + i);
+      stats.questProgress.put("quest_" + i, i * 7 % 100);
+    }
+    serializedStats = serializer.serializeBytes(stats);
+  }
+
+  @Benchmark
+  public byte[] serialize() {
+    return serializer.serializeBytes(stats);
+  }
+
+  @Benchmark
+  public PlayerStats deserialize() {
+    return serializer.deserializeBytes(serializedStats);
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import io.github.gonalez.zplayersync.data.ConnectionFactory;
+import io.github.gonalez.zplayersync.data.InventoryPlayerData;
+import io.github.gonalez.zplayersync.data.LocationPlayerData;
+import io.github.gonalez.zplayersync.data.PlayerDataSchema;
+import io.github.gonalez.zplayersync.data.PlayerHandoff;
+import io.github.gonalez.zplayersync.data.PlayerSnapshot;
+import io.github.gonalez.zplayersync.data.PlayerValueKey;
+import io.github.gonalez.zplayersync.data.PlayerValueRegistry;
+import io.github.gonalez.zplayersync.data.PooledConnectionFactory;
+import io.github.gonalez.zplayersync.data.SQLPlayerDataReadWriter;
+import io.github.gonalez.zplayersync.serializer.BinaryObjectSerializer;
+import io.github.gonalez.zplayersync.serializer.InventorySerializer;
+import io.github.gonalez.zplayersync.serializer.LocationSerializer;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.annotation.Nullable;
+import java.sql.DriverManager;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Latency of reading and writing players with {@link SQLPlayerDataReadWriter}, against an
+ * in-memory H2 database in MySQL compatibility mode. The numbers do not include the network
+ * round trips to a real MySQL server, they measure the overhead of the read writer itself.
+ */
+@State(Scope.Benchmark)
+public class SQLReadWriterBenchmark {
+  private static final int PLAYER_COUNT = 256;
+
+  /** Whether every write stores all the values, or only the values that changed. */
+  @Param({"true", "false"})
+  public boolean forceFullWrites;
+
+  private final Map<UUID, Player> players = new HashMap<>();
+  private UUID[] playerUUIDs;
+  private SQLPlayerDataReadWriter dataReadWriter;
+
+  @Setup
+  public void setUp() {
+    BenchmarkServer.install();
+
+    // Every trial uses its own database
+    String url = "jdbc:h2:mem:zplayersync-" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+    ConnectionFactory connectionFactory = new PooledConnectionFactory(
+        () -> DriverManager.getConnection(url), 4, 64, 10_000, 30_000);
+
+    Map<Class<?>, BinaryObjectSerializer<?>> serializers = new HashMap<>();
+    serializers.put(Inventory.class, new InventorySerializer());
+    serializers.put(Location.class, new LocationSerializer());
+    PlayerValueRegistry valueRegistry = new PlayerValueRegistry();
+    valueRegistry.register(new InventoryPlayerData());
+    valueRegistry.register(new LocationPlayerData());
+    dataReadWriter = new SQLPlayerDataReadWriter(connectionFactory, new PlayerDataSchema(), new PlayerHandoff()) {
+      @SuppressWarnings("unchecked")
+      @Nullable
+      @Override
+      protected <T> BinaryObjectSerializer<T> findSerializerOfType(Class<T> type) {
+        return (BinaryObjectSerializer<T>) serializers.get(type);
+      }
+
+      @Override
+      protected ImmutableList<PlayerValueKey<?>> providePlayerValues() {
+        return valueRegistry.keys();
+      }
+
+      @Override
+      protected boolean forceFullWrites() {
+        return forceFullWrites;
+      }
+
+      @Override
+      public Player getPlayer(UUID uuid) {
+        return players.get(uuid);
+      }
+    };
+    dataReadWriter.open();
+
+    playerUUIDs = new UUID[PLAYER_COUNT];
+    for (int i = 0; i < PLAYER_COUNT; i++) {
+      UUID uuid = UUID.randomUUID();
+      playerUUIDs[i] = uuid;
+      players.put(uuid, BenchmarkServer.createPlayer(
+          uuid, BenchmarkValues.location(), BenchmarkValues.playerInventoryContents()));
+      dataReadWriter.write(uuid);
+      dataReadWriter.read(uuid);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    dataReadWriter.close();
+  }
+
+  @Benchmark
+  public PlayerSnapshot read() {
+    return dataReadWriter.read(randomPlayer());
+  }
+
+  @Benchmark
+  public void write() {
+    dataReadWriter.write(randomPlayer());
+  }
+
+  private UUID randomPlayer() {
+    return playerUUIDs[ThreadLocalRandom.current().nextInt(PLAYER_COUNT)];
+  }
+}
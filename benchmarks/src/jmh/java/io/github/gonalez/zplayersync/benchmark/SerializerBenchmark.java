@@ -0,0 +1,74 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.benchmark;
+
+import io.github.gonalez.zplayersync.serializer.InventorySerializer;
+import io.github.gonalez.zplayersync.serializer.LocationSerializer;
+import org.bukkit.Location;
+import org.bukkit.inventory.Inventory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Throughput of serializing and deserializing the built-in values of players. */
+@State(Scope.Benchmark)
+public class SerializerBenchmark {
+  @Param({"COMPACT", "LEGACY"})
+  public InventorySerializer.Format inventoryFormat;
+
+  private InventorySerializer inventorySerializer;
+  private Inventory inventory;
+  private byte[] serializedInventory;
+
+  private LocationSerializer locationSerializer;
+  private Location location;
+  private byte[] serializedLocation;
+
+  @Setup
+  public void setUp() {
+    BenchmarkServer.install();
+
+    inventorySerializer = new InventorySerializer(inventoryFormat);
+    inventory = BenchmarkServer.createInventory(BenchmarkValues.playerInventoryContents());
+    serializedInventory = inventorySerializer.serializeBytes(inventory);
+
+    locationSerializer = new LocationSerializer();
+    location = BenchmarkValues.location();
+    serializedLocation = locationSerializer.serializeBytes(location);
+  }
+
+  @Benchmark
+  public byte[] serializeInventory() {
+    return inventorySerializer.serializeBytes(inventory);
+  }
+
+  @Benchmark
+  public Inventory deserializeInventory() {
+    return inventorySerializer.deserializeBytes(serializedInventory);
+  }
+
+  @Benchmark
+  public byte[] serializeLocation() {
+    return locationSerializer.serializeBytes(location);
+  }
+
+  @Benchmark
+  public Location deserializeLocation() {
+    return locationSerializer.deserializeBytes(serializedLocation);
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import io.github.gonalez.zplayersync.data.PlayerDataReadWriter;
+import io.github.gonalez.zplayersync.data.PlayerDataWriteQueue;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Periodically saves the values of online players, spreading the players evenly across the
+ * interval instead of saving all of them at once.
+ *
+ * <p>Every player is assigned to one of the ticks of the interval by the hash of its uuid, and
+ * is saved when that tick comes. The values are only captured on the main thread, the writes
+ * are done by the {@link PlayerDataWriteQueue}. Capturing is limited to a time budget per tick,
+ * the players that do not fit in the budget are saved on the next ticks. A player is only
+ * captured once a slot of the write queue is reserved for its save, when the queue is full the
+ * players waiting for their save are kept for the next ticks. Must be run every tick on the main
+ * thread.
+ */
+class AutosaveScheduler implements Runnable {
+  private final Set<UUID>[] buckets;
+  // Players waiting for their save, in order, each at most once
+  private final Set<UUID> deferredPlayers = new LinkedHashSet<>();
+
+  private final PlayerDataReadWriter dataReadWriter;
+  private final PlayerDataWriteQueue writeQueue;
+  private final long tickBudgetNanos;
+
+  private int tick;
+
+  @SuppressWarnings("unchecked")
+  AutosaveScheduler(
+      PlayerDataReadWriter dataReadWriter,
+      PlayerDataWriteQueue writeQueue,
+      int intervalTicks,
+      long tickBudgetNanos) {
+    checkArgument(intervalTicks > 0, "intervalTicks must be positive");
+    this.dataReadWriter = checkNotNull(dataReadWriter);
+    this.writeQueue = checkNotNull(writeQueue);
+    this.tickBudgetNanos = tickBudgetNanos;
+    this.buckets = new Set[intervalTicks];
+  }
+
+  /** Starts saving the given player, once its values were applied. */
+  void track(UUID playerUUID) {
+    int bucket = bucketOf(playerUUID);
+    if (buckets[bucket] == null) {
+      buckets[bucket] = new HashSet<>();
+    }
+    buckets[bucket].add(playerUUID);
+  }
+
+  /** Stops saving the given player, when it leaves the server. */
+  void untrack(UUID playerUUID) {
+    Set<UUID> bucket = buckets[bucketOf(playerUUID)];
+    if (bucket != null) {
+      bucket.remove(playerUUID);
+    }
+    deferredPlayers.remove(playerUUID);
+  }
+
+  @Override
+  public void run() {
+    Set<UUID> bucket = buckets[tick];
+    tick = (tick + 1) % buckets.length;
+    if (bucket != null) {
+      deferredPlayers.addAll(bucket);
+    }
+
+    long deadline = System.nanoTime() + tickBudgetNanos;
+    // At least one player is saved per tick, even if over the budget
+    Iterator<UUID> iterator = deferredPlayers.iterator();
+    while (iterator.hasNext()) {
+      UUID playerUUID = iterator.next();
+      try {
+        if (!writeQueue.tryReserve()) {
+          // The writes are falling behind, adding more would only make it worse
+          break;
+        }
+        iterator.remove();
+        Supplier<CompletableFuture<Void>> write;
+        try {
+          // Values that did not change since the last save are not written again
+          write = dataReadWriter.captureWriteAsync(playerUUID);
+        } catch (RuntimeException e) {
+          writeQueue.cancelReservation();
+          throw e;
+        }
+        writeQueue.submitReservedAsync(playerUUID, write);
+      } catch (RejectedExecutionException ignored) {
+        // Shutting down
+        break;
+      }
+      if (System.nanoTime() >= deadline) {
+        break;
+      }
+    }
+  }
+
+  private int bucketOf(UUID playerUUID) {
+    return Math.floorMod(playerUUID.hashCode(), buckets.length);
+  }
+}
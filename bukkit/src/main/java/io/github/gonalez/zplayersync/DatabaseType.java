@@ -18,4 +18,6 @@ package io.github.gonalez.zplayersync;
 /** Supported databases for zplayer-sync. */
 public enum DatabaseType {
   MYSQL,
+  /** Stored in files in the plugin folder, for single servers and testing. */
+  EMBEDDED,
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import io.github.gonalez.zplayersync.data.EmbeddedPlayerDataReadWriter;
+import io.github.gonalez.zplayersync.data.PlayerDataReadWriter;
+import io.github.gonalez.zplayersync.data.PlayerHandoff;
+import io.github.gonalez.zplayersync.data.PlayerValueKey;
+import io.github.gonalez.zplayersync.serializer.BinaryObjectSerializer;
+import io.github.gonalez.zplayersync.serializer.PayloadCompression;
+
+import javax.annotation.Nullable;
+import java.nio.file.Path;
+
+/** <internal> {@link PlayerSyncPluginModule} storing the values of players in a local directory. */
+public class EmbeddedPlayerSyncPluginModule extends PlayerSyncPluginModule {
+  private final Path directory;
+  private final long maxSegmentBytes;
+
+  public EmbeddedPlayerSyncPluginModule(
+      Path directory,
+      long maxSegmentBytes,
+      @Nullable Gson gson,
+      ImmutableList<String> excludedValueApis,
+      ImmutableMap<String, PayloadCompression> payloadCompressions) {
+    super(null, gson, excludedValueApis, payloadCompressions, false, new PlayerHandoff(), 0, 32, null,
+        0, 0);
+    this.directory = directory;
+    this.maxSegmentBytes = maxSegmentBytes;
+  }
+
+  @Override
+  protected PlayerDataReadWriter createDataReadWriter() {
+    return new EmbeddedPlayerDataReadWriter(directory, maxSegmentBytes) {
+      @Nullable
+      @Override
+      protected <T> BinaryObjectSerializer<T> findSerializerOfType(Class<T> type) {
+        return findSerializer(type);
+      }
+
+      @Override
+      protected PayloadCompression findPayloadCompression(String identifier) {
+        PayloadCompression payloadCompression = findConfiguredCompression(identifier);
+        return payloadCompression != null ? payloadCompression : super.findPayloadCompression(identifier);
+      }
+
+      @Override
+      protected ImmutableList<PlayerValueKey<?>> providePlayerValues() {
+        return playerValues();
+      }
+    };
+  }
+}
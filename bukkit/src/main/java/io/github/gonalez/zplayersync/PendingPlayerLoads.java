@@ -0,0 +1,178 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import io.github.gonalez.zplayersync.data.PlayerDataReadWriter;
+import io.github.gonalez.zplayersync.data.PlayerDataWriteQueue;
+import io.github.gonalez.zplayersync.data.PlayerSnapshot;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Loads of the values of players that started before the players joined the server, keyed by the
+ * uuid of the player.
+ *
+ * <p>A load is started when a player is logging in and is claimed when the player joins. Loads
+ * that are not claimed in time, e.g. because the login was denied, are evicted and the player is
+ * released once its load completes so it is not held by this server.
+ */
+class PendingPlayerLoads {
+  private final Map<UUID, PendingLoad> pendingLoads = new ConcurrentHashMap<>();
+
+  private final PlayerDataReadWriter dataReadWriter;
+  private final PlayerDataWriteQueue writeQueue;
+  private final Executor executor;
+  private final long expireMillis;
+
+  PendingPlayerLoads(
+      PlayerDataReadWriter dataReadWriter,
+      PlayerDataWriteQueue writeQueue,
+      Executor executor,
+      long expireMillis) {
+    this.dataReadWriter = checkNotNull(dataReadWriter);
+    this.writeQueue = checkNotNull(writeQueue);
+    this.executor = checkNotNull(executor);
+    this.expireMillis = expireMillis;
+  }
+
+  /** Starts loading the values of the given player, replacing any previous load of the player. */
+  PendingLoad start(UUID playerUUID) {
+    PendingLoad pendingLoad = new PendingLoad();
+    PendingLoad previous = pendingLoads.put(playerUUID, pendingLoad);
+    if (previous != null) {
+      release(playerUUID, previous);
+    }
+    read(playerUUID, pendingLoad);
+    return pendingLoad;
+  }
+
+  private void read(UUID playerUUID, PendingLoad pendingLoad) {
+    // The values are read once the writes of the player that are still queued were run, e.g.
+    // when it is joining again right after leaving, so the values that are read are not stale
+    writeQueue.pendingWrite(playerUUID).thenRunAsync(() -> {
+      pendingLoad.readStartedNanos = System.nanoTime();
+      try {
+        PlayerSnapshot values = dataReadWriter.read(playerUUID);
+        pendingLoad.readCompletedNanos = System.nanoTime();
+        pendingLoad.future.complete(values);
+      } catch (Throwable throwable) {
+        pendingLoad.readCompletedNanos = System.nanoTime();
+        pendingLoad.future.completeExceptionally(throwable);
+      }
+    }, executor);
+  }
+
+  /**
+   * Claims the load of the given player when it joins the server, starting a new one if there is
+   * none. The load remains pending until {@link #complete(UUID, PendingLoad)} or
+   * {@link #evict(UUID)} is called.
+   */
+  PendingLoad claim(UUID playerUUID) {
+    PendingLoad[] startedLoad = new PendingLoad[1];
+    // Claimed atomically, so the load cannot be evicted as expired in between
+    PendingLoad pendingLoad = pendingLoads.compute(playerUUID, (uuid, currentLoad) -> {
+      if (currentLoad == null) {
+        currentLoad = startedLoad[0] = new PendingLoad();
+      }
+      currentLoad.claimed = true;
+      return currentLoad;
+    });
+    if (startedLoad[0] != null) {
+      read(playerUUID, startedLoad[0]);
+    }
+    return pendingLoad;
+  }
+
+  /** Removes the given load once its values were applied to the player. */
+  void complete(UUID playerUUID, PendingLoad pendingLoad) {
+    pendingLoads.remove(playerUUID, pendingLoad);
+  }
+
+  /**
+   * Discards the load of the given player, releasing the player once the load completes.
+   *
+   * @return {@code true} if the player had a pending load.
+   */
+  boolean evict(UUID playerUUID) {
+    PendingLoad pendingLoad = pendingLoads.remove(playerUUID);
+    if (pendingLoad == null) {
+      return false;
+    }
+    release(playerUUID, pendingLoad);
+    return true;
+  }
+
+  /** Evicts the loads that were not claimed by a joining player in time. */
+  void evictExpired() {
+    long now = System.currentTimeMillis();
+    for (Map.Entry<UUID, PendingLoad> entry : pendingLoads.entrySet()) {
+      PendingLoad pendingLoad = entry.getValue();
+      if (!pendingLoad.claimed && now - pendingLoad.startedMillis > expireMillis) {
+        evictUnclaimed(entry.getKey(), pendingLoad);
+      }
+    }
+  }
+
+  private void evictUnclaimed(UUID playerUUID, PendingLoad pendingLoad) {
+    boolean[] evicted = new boolean[1];
+    // Removed atomically, only if it was not claimed or replaced in the meantime
+    pendingLoads.computeIfPresent(playerUUID, (uuid, currentLoad) -> {
+      if (currentLoad != pendingLoad || currentLoad.claimed) {
+        return currentLoad;
+      }
+      evicted[0] = true;
+      return null;
+    });
+    if (evicted[0]) {
+      release(playerUUID, pendingLoad);
+    }
+  }
+
+  /** @return {@code true} if the given load is still the pending load of the player. */
+  boolean isPending(UUID playerUUID, PendingLoad pendingLoad) {
+    return pendingLoads.get(playerUUID) == pendingLoad;
+  }
+
+  private void release(UUID playerUUID, PendingLoad pendingLoad) {
+    pendingLoad.future.whenComplete((unused, throwable) -> {
+      try {
+        writeQueue.submit(playerUUID, () -> dataReadWriter.release(playerUUID));
+      } catch (RejectedExecutionException ignored) {
+        // Shutting down
+      }
+    });
+  }
+
+  /** A load of the values of a player. */
+  static class PendingLoad {
+    final CompletableFuture<PlayerSnapshot> future = new CompletableFuture<>();
+    final long startedMillis = System.currentTimeMillis();
+    final long startedNanos = System.nanoTime();
+
+    // When the read of the values started and completed, once they did
+    volatile long readStartedNanos;
+    volatile long readCompletedNanos;
+
+    volatile boolean claimed;
+  }
+}
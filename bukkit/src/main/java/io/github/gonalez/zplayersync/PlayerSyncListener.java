@@ -20,53 +20,252 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.google.common.collect.ImmutableList;
 import io.github.gonalez.zplayersync.data.event.PlayerDataReadEvent;
 import io.github.gonalez.zplayersync.data.PlayerDataReadWriter;
-import io.github.gonalez.zplayersync.data.PlayerDataApi;
+import io.github.gonalez.zplayersync.data.BukkitExecutors;
+import io.github.gonalez.zplayersync.data.PlayerDataWriteQueue;
+import io.github.gonalez.zplayersync.data.PlayerSnapshot;
+import io.github.gonalez.zplayersync.data.PlayerValueKey;
+import io.github.gonalez.zplayersync.metrics.SyncMetrics;
+import io.github.gonalez.zplayersync.metrics.SyncStage;
+import io.github.gonalez.zplayersync.metrics.SyncTracer;
 
 import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
 
-import java.util.ArrayList;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 
 /** Listener to {@link PlayerDataReadWriter} write & read the values of players when entering and leaving the server. */
 class PlayerSyncListener implements Listener {
   private final PlayerDataReadWriter dataReadWriter;
+  private final PlayerDataWriteQueue writeQueue;
+  private final PendingPlayerLoads pendingLoads;
+  @Nullable private final AutosaveScheduler autosaveScheduler;
   private final Plugin plugin;
+  private final long loadTimeoutTicks;
+  private final String kickMessage;
+  private final long slowSyncThresholdNanos;
+
+  // Players whose values were applied
+  private final Set<UUID> loadedPlayers = ConcurrentHashMap.newKeySet();
 
   public PlayerSyncListener(
       PlayerDataReadWriter dataReadWriter,
-      Plugin plugin) {
+      PlayerDataWriteQueue writeQueue,
+      PendingPlayerLoads pendingLoads,
+      @Nullable AutosaveScheduler autosaveScheduler,
+      Plugin plugin,
+      long loadTimeoutTicks,
+      String kickMessage,
+      long slowSyncThresholdNanos) {
     this.dataReadWriter = checkNotNull(dataReadWriter);
+    this.writeQueue = checkNotNull(writeQueue);
+    this.pendingLoads = checkNotNull(pendingLoads);
+    this.autosaveScheduler = autosaveScheduler;
     this.plugin = checkNotNull(plugin);
+    this.loadTimeoutTicks = loadTimeoutTicks;
+    this.kickMessage = checkNotNull(kickMessage);
+    this.slowSyncThresholdNanos = slowSyncThresholdNanos;
+  }
+
+  @EventHandler(priority = EventPriority.MONITOR)
+  public void onPreLogin(AsyncPlayerPreLoginEvent preLoginEvent) {
+    // Loading waits for the previous server of the player to save it, so it is
+    // started as soon as the player is allowed to log in, before it joins.
+    if (preLoginEvent.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+      pendingLoads.start(preLoginEvent.getUniqueId());
+    }
+  }
+
+  @EventHandler(priority = EventPriority.MONITOR)
+  public void onLogin(PlayerLoginEvent loginEvent) {
+    if (loginEvent.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+      pendingLoads.evict(loginEvent.getPlayer().getUniqueId());
+    }
   }
 
   @EventHandler
   public void onJoin(PlayerJoinEvent joinEvent) {
-    // Wait a bit to get the latest data from mysql, even though we are using row locking when a player
-    // goes from one server to another it can be so fast that mysql doesn't have time to acquire the
-    // lock of rows when in multiple client. // TODO (gonalez): Find a better way for this...
-    plugin.getServer().getScheduler()
-        .runTaskLater(plugin, () -> {
-          ImmutableList<PlayerDataApi<?>> playersValueApis =
-              dataReadWriter.read(joinEvent.getPlayer().getUniqueId());
+    Player player = joinEvent.getPlayer();
+    UUID playerUUID = player.getUniqueId();
+    long joinedNanos = System.nanoTime();
+    SyncTracer.JoinSpan joinSpan = dataReadWriter.getMetrics().getTracer().startJoin(playerUUID);
 
-          PlayerDataReadEvent dataWriteEvent =
-              new PlayerDataReadEvent(joinEvent.getPlayer().getUniqueId(), new ArrayList<>(playersValueApis));
-          Bukkit.getServer().getPluginManager().callEvent(dataWriteEvent);
+    PendingPlayerLoads.PendingLoad load = pendingLoads.claim(playerUUID);
+    if (load.future.isDone() && !load.future.isCompletedExceptionally()) {
+      // Prefetched while logging in, nothing left to wait for
+      apply(player, load, joinedNanos, joinSpan, true);
+      return;
+    }
 
-          if (!dataWriteEvent.isCancelled()) {
-            dataWriteEvent.getValueApis().stream()
-                .filter(PlayerDataApi::isStandalone)
-                .forEach(valueApi -> valueApi.set(joinEvent.getPlayer()));
+    BukkitTask timeoutTask = plugin.getServer().getScheduler()
+        .runTaskLater(plugin, () -> {
+          if (pendingLoads.isPending(playerUUID, load) && player.isOnline()) {
+            plugin.getLogger().log(Level.WARNING, "Timed out reading data of player " + playerUUID);
+            player.kickPlayer(kickMessage);
           }
-          }, 2);
+        }, loadTimeoutTicks);
+    load.future.whenCompleteAsync((unused, throwable) -> {
+      timeoutTask.cancel();
+      apply(player, load, joinedNanos, joinSpan, false);
+    }, BukkitExecutors.mainThread(plugin));
+  }
+
+  private void apply(Player player, PendingPlayerLoads.PendingLoad load, long joinedNanos,
+      SyncTracer.JoinSpan joinSpan, boolean prefetched) {
+    UUID playerUUID = player.getUniqueId();
+    // Loads that timed out or whose player left are discarded
+    if (!pendingLoads.isPending(playerUUID, load) || !player.isOnline()) {
+      return;
+    }
+
+    PlayerSnapshot snapshot;
+    try {
+      snapshot = load.future.join();
+    } catch (CompletionException e) {
+      // The reason, e.g. a journaled save that could not be written first, is part of the message
+      plugin.getLogger().log(Level.SEVERE, "Could not read data of player " + playerUUID
+          + ", kicking it: " + e.getCause().getMessage(), e.getCause());
+      player.kickPlayer(kickMessage);
+      return;
+    }
+    pendingLoads.complete(playerUUID, load);
+
+    long eventStartedNanos = System.nanoTime();
+    PlayerDataReadEvent dataWriteEvent = new PlayerDataReadEvent(playerUUID, snapshot);
+    Bukkit.getServer().getPluginManager().callEvent(dataWriteEvent);
+    long eventCompletedNanos = System.nanoTime();
+
+    SyncMetrics metrics = dataReadWriter.getMetrics();
+    if (!dataWriteEvent.isCancelled()) {
+      PlayerSnapshot appliedSnapshot = dataWriteEvent.getSnapshot();
+      ImmutableList<PlayerValueKey<?>> keys = appliedSnapshot.keys();
+      for (int i = 0; i < keys.size(); i++) {
+        PlayerValueKey<?> key = keys.get(i);
+        long startNanos = System.nanoTime();
+        SyncTracer.ValueStageSpan span =
+            metrics.getTracer().startValueStage(playerUUID, key.identifier(), SyncStage.APPLY);
+        boolean applied;
+        try {
+          applied = appliedSnapshot.apply(key, player);
+        } catch (RuntimeException e) {
+          metrics.recordError(key.identifier(), e);
+          throw e;
+        }
+        if (applied) {
+          long durationNanos = System.nanoTime() - startNanos;
+          metrics.recordLatency(key.identifier(), SyncStage.APPLY, durationNanos);
+          span.finish(0);
+        }
+      }
+    }
+    long appliedNanos = System.nanoTime();
+    traceJoin(playerUUID, load, joinSpan, prefetched,
+        joinedNanos, eventStartedNanos, eventCompletedNanos, appliedNanos);
+    loadedPlayers.add(playerUUID);
+    if (autosaveScheduler != null) {
+      autosaveScheduler.track(playerUUID);
+    }
+  }
+
+  private void traceJoin(UUID playerUUID, PendingPlayerLoads.PendingLoad load, SyncTracer.JoinSpan joinSpan,
+      boolean prefetched, long joinedNanos, long eventStartedNanos, long eventCompletedNanos, long appliedNanos) {
+    long queuedNanos = load.readStartedNanos - load.startedNanos;
+    long readNanos = load.readCompletedNanos - load.readStartedNanos;
+    long joinWaitNanos = appliedNanos - joinedNanos;
+    long eventNanos = eventCompletedNanos - eventStartedNanos;
+    long applyNanos = appliedNanos - eventCompletedNanos;
+    joinSpan.finish(prefetched, queuedNanos, readNanos, eventNanos, applyNanos);
+
+    // Values applied right after joining are not noticed by the player, whatever the read took
+    if (slowSyncThresholdNanos > 0 && joinWaitNanos > slowSyncThresholdNanos) {
+      plugin.getLogger().log(Level.WARNING, String.format(
+          "Slow join sync of player %s: values applied %d ms after joining (%s, queued %d ms, read %d ms,"
+              + " read event %d ms, apply %d ms)",
+          playerUUID, millis(joinWaitNanos), prefetched ? "prefetched" : "not prefetched",
+          millis(queuedNanos), millis(readNanos), millis(eventNanos), millis(applyNanos)));
+    }
+  }
+
+  private static long millis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  /**
+   * Tracks the given players, which were already online when the listener was registered, e.g.
+   * after a reload, as if their values were applied. Their values are the ones they have in game
+   * and are written right away, so this server owns them and they are written when leaving.
+   */
+  void trackOnlinePlayers(Collection<? extends Player> players) {
+    for (Player player : players) {
+      UUID playerUUID = player.getUniqueId();
+      if (!loadedPlayers.add(playerUUID)) {
+        continue;
+      }
+      if (autosaveScheduler != null) {
+        autosaveScheduler.track(playerUUID);
+      }
+      writeQueue.submitAsync(playerUUID, dataReadWriter.captureWriteAsync(playerUUID));
+    }
+  }
+
+  /**
+   * Stops tracking all the players whose values were applied, so they are not written again when
+   * leaving, and returns them.
+   */
+  ImmutableList<UUID> drainLoadedPlayers() {
+    ImmutableList<UUID> players = ImmutableList.copyOf(loadedPlayers);
+    for (UUID playerUUID : players) {
+      loadedPlayers.remove(playerUUID);
+      if (autosaveScheduler != null) {
+        autosaveScheduler.untrack(playerUUID);
+      }
+    }
+    return players;
   }
 
   @EventHandler
   public void onLeave(PlayerQuitEvent quitEvent) {
-    dataReadWriter.write(quitEvent.getPlayer().getUniqueId());
+    UUID playerUUID = quitEvent.getPlayer().getUniqueId();
+    if (autosaveScheduler != null) {
+      autosaveScheduler.untrack(playerUUID);
+    }
+    if (loadedPlayers.remove(playerUUID)) {
+      // The values are captured now while the player is still online, the
+      // actual write is done later by the write queue outside the main thread.
+      long startNanos = System.nanoTime();
+      SyncTracer.QuitSpan quitSpan = dataReadWriter.getMetrics().getTracer().startQuit(playerUUID);
+      Supplier<CompletableFuture<Void>> write = dataReadWriter.captureQuitWriteAsync(playerUUID);
+      quitSpan.finish();
+      long captureNanos = System.nanoTime() - startNanos;
+      if (slowSyncThresholdNanos > 0 && captureNanos > slowSyncThresholdNanos) {
+        plugin.getLogger().log(Level.WARNING, String.format(
+            "Slow quit sync of player %s: capturing the values took %d ms", playerUUID, millis(captureNanos)));
+      }
+      writeQueue.submitAsync(playerUUID, write);
+      return;
+    }
+
+    // The values of the player were never applied, writing them would overwrite
+    // the stored ones, so the player is only released once it is loaded.
+    if (!pendingLoads.evict(playerUUID)) {
+      writeQueue.submit(playerUUID, () -> dataReadWriter.release(playerUUID));
+    }
   }
 }
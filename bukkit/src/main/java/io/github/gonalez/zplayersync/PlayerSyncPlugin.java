@@ -16,26 +16,50 @@
 package io.github.gonalez.zplayersync;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.Gson;
 import io.github.gonalez.zplayersync.data.*;
+import io.github.gonalez.zplayersync.metrics.SyncTracer;
 import io.github.gonalez.zplayersync.serializer.InventorySerializer;
 import io.github.gonalez.zplayersync.serializer.LocationSerializer;
+import io.github.gonalez.zplayersync.serializer.PayloadCompression;
 import org.bukkit.Location;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 /** The main class of the plugin. */
 public class PlayerSyncPlugin extends JavaPlugin {
+  private static final String JMX_DOMAIN = "io.github.gonalez.zplayersync";
 
   @Nullable
   private PlayerSyncModule pluginModule;
 
+  @Nullable
+  private PlayerDataWriteQueue writeQueue;
+
+  @Nullable
+  private PlayerSyncListener listener;
+
+  @Nullable
+  private SaveJournal saveJournal;
+
+  private ImmutableMap<String, PayloadCompression> payloadCompressions = ImmutableMap.of();
+
   @Override
   public void onEnable() {
     FileConfiguration fileConfiguration = getConfig();
@@ -44,26 +68,60 @@ public class PlayerSyncPlugin extends JavaPlugin {
     saveConfig();
 
     try {
+      payloadCompressions = loadPayloadCompressions(fileConfiguration);
+
+      ImmutableList<String> excludedValueApis = ImmutableList.copyOf(
+          fileConfiguration.getConfigurationSection("enabled_values").getKeys(false)
+              .stream()
+              .filter(s -> !fileConfiguration.getBoolean("enabled_values." + s))
+              .collect(Collectors.toList()));
       switch (DatabaseType.valueOf(fileConfiguration.getString("database.type"))) {
         case MYSQL:
+          // The embedded database writes to local files, it has no outages to journal saves for
+          if (fileConfiguration.getBoolean("journal.enabled")) {
+            saveJournal = new SaveJournal(getDataFolder().toPath().resolve("journal"));
+          }
           ConnectionFactory connectionFactory =
-              new MySQLConnectionFactory(
-                  fileConfiguration.getString("database.url"),
-                  fileConfiguration.getString("database.user"),
-                  fileConfiguration.getString("database.pass"));
+              new PooledConnectionFactory(
+                  new MySQLConnectionFactory(
+                      fileConfiguration.getString("database.url"),
+                      fileConfiguration.getString("database.user"),
+                      fileConfiguration.getString("database.pass")),
+                  fileConfiguration.getInt("database.pool.size"),
+                  fileConfiguration.getInt("database.pool.statement_cache_size"),
+                  TimeUnit.SECONDS.toMillis(fileConfiguration.getLong("database.pool.borrow_timeout_seconds")),
+                  TimeUnit.SECONDS.toMillis(fileConfiguration.getLong("database.pool.validation_interval_seconds")));
           pluginModule = new PlayerSyncPluginModule(connectionFactory,
               new Gson(),
-              ImmutableList.copyOf(
-                  fileConfiguration.getConfigurationSection("enabled_values").getKeys(false)
-                      .stream()
-                      .filter(s -> !fileConfiguration.getBoolean("enabled_values." + s))
-                      .collect(Collectors.toList())));
+              excludedValueApis,
+              payloadCompressions,
+              fileConfiguration.getBoolean("writer.force_full_writes"),
+              new PlayerHandoff(
+                  serverId(fileConfiguration),
+                  fileConfiguration.getLong("handoff.lease_seconds"),
+                  fileConfiguration.getLong("handoff.max_wait_millis")),
+              fileConfiguration.getBoolean("writer.group_commit.enabled")
+                  ? fileConfiguration.getLong("writer.group_commit.window_millis") : 0,
+              fileConfiguration.getInt("writer.group_commit.max_players"),
+              saveJournal,
+              fileConfiguration.getBoolean("loading.recent_quits.enabled")
+                  ? fileConfiguration.getInt("loading.recent_quits.max_players") : 0,
+              TimeUnit.SECONDS.toMillis(fileConfiguration.getLong("loading.recent_quits.expire_seconds")));
+          break;
+        case EMBEDDED:
+          pluginModule = new EmbeddedPlayerSyncPluginModule(
+              getDataFolder().toPath().resolve("data"),
+              fileConfiguration.getLong("database.embedded.max_segment_mb") * 1024 * 1024,
+              new Gson(),
+              excludedValueApis,
+              payloadCompressions);
           break;
       }
 
       // built-in serializers
       pluginModule.registerSerializer(Location.class, new LocationSerializer());
-      pluginModule.registerSerializer(Inventory.class, new InventorySerializer());
+      pluginModule.registerSerializer(Inventory.class, new InventorySerializer(
+          InventorySerializer.Format.valueOf(fileConfiguration.getString("value_settings.inventory.format"))));
 
       ImmutableList.of(
           new HealthPlayerData(),
@@ -84,9 +142,55 @@ public class PlayerSyncPlugin extends JavaPlugin {
       } else {
         playerDataReadWriter.open();
 
+        writeQueue = new PlayerDataWriteQueue(
+            fileConfiguration.getInt("writer.threads"),
+            fileConfiguration.getInt("writer.max_pending_writes"),
+            getLogger());
+
+        long prefetchExpireSeconds = fileConfiguration.getLong("loading.prefetch_expire_seconds");
+        PendingPlayerLoads pendingLoads = new PendingPlayerLoads(
+            playerDataReadWriter,
+            writeQueue,
+            BukkitExecutors.async(this),
+            TimeUnit.SECONDS.toMillis(prefetchExpireSeconds));
+        // Loads of logins that never completed are evicted periodically
+        getServer().getScheduler().runTaskTimerAsynchronously(
+            this, pendingLoads::evictExpired, prefetchExpireSeconds * 20, prefetchExpireSeconds * 20);
+
+        AutosaveScheduler autosaveScheduler = null;
+        if (fileConfiguration.getBoolean("autosave.enabled")) {
+          autosaveScheduler = new AutosaveScheduler(
+              playerDataReadWriter,
+              writeQueue,
+              fileConfiguration.getInt("autosave.interval_seconds") * 20,
+              TimeUnit.MILLISECONDS.toNanos(fileConfiguration.getLong("autosave.tick_budget_millis")));
+          getServer().getScheduler().runTaskTimer(this, autosaveScheduler, 1, 1);
+        }
+
+        listener = new PlayerSyncListener(
+                playerDataReadWriter,
+                writeQueue,
+                pendingLoads,
+                autosaveScheduler,
+                this,
+                fileConfiguration.getLong("loading.timeout_seconds") * 20,
+                fileConfiguration.getString("loading.kick_message"),
+                TimeUnit.MILLISECONDS.toNanos(fileConfiguration.getLong("tracing.slow_sync_threshold_millis")));
         PluginManager pluginManager = getServer().getPluginManager();
-        pluginManager.registerEvents(
-            new PlayerSyncListener(playerDataReadWriter, this), this);
+        pluginManager.registerEvents(listener, this);
+        // Players that stayed online through a reload did not join again
+        listener.trackOnlinePlayers(getServer().getOnlinePlayers());
+
+        PluginCommand command = getCommand("zpsync");
+        if (command != null) {
+          command.setExecutor(new SyncStatsCommand(playerDataReadWriter));
+        }
+        if (fileConfiguration.getBoolean("metrics.jmx")) {
+          playerDataReadWriter.getMetrics().exportToJmx(JMX_DOMAIN);
+        }
+        if (fileConfiguration.getBoolean("tracing.flight_recorder")) {
+          playerDataReadWriter.getMetrics().setTracer(SyncTracer.flightRecorder());
+        }
       }
     } catch (Exception e) {
       throw new RuntimeException("Cannot initialize plugin", e);
@@ -95,12 +199,113 @@ public class PlayerSyncPlugin extends JavaPlugin {
 
   @Override
   public void onDisable() {
+    if (writeQueue != null) {
+      // Wait for the pending writes before closing the data read writer
+      writeQueue.shutdown(getConfig().getLong("writer.shutdown_timeout_seconds"), TimeUnit.SECONDS);
+    }
     if (pluginModule != null) {
       PlayerDataReadWriter dataReadWriter = pluginModule.getDataReadWriter();
       if (dataReadWriter != null) {
+        if (listener != null) {
+          flushOnlinePlayers(dataReadWriter, listener);
+        }
         dataReadWriter.close();
+        dataReadWriter.getMetrics().unexportFromJmx();
+
+        if (dataReadWriter instanceof SQLPlayerDataReadWriter) {
+          SQLPlayerDataReadWriter sqlDataReadWriter = (SQLPlayerDataReadWriter) dataReadWriter;
+          getLogger().log(Level.INFO, String.format("Saves: %d full, %d partial, %d skipped",
+              sqlDataReadWriter.getSaveCount(SaveResult.FULL),
+              sqlDataReadWriter.getSaveCount(SaveResult.PARTIAL),
+              sqlDataReadWriter.getSaveCount(SaveResult.SKIPPED)));
+          if (sqlDataReadWriter.getGroupCommitCount() > 0) {
+            getLogger().log(Level.INFO, String.format(
+                "Group commits: %d, %.1f saves on average, %d at most, %d saves retried on their own",
+                sqlDataReadWriter.getGroupCommitCount(),
+                sqlDataReadWriter.getAverageGroupCommitSize(),
+                sqlDataReadWriter.getMaxGroupCommitSize(),
+                sqlDataReadWriter.getGroupCommitFallbackCount()));
+          }
+          long recentQuitLoads =
+              sqlDataReadWriter.getRecentQuitHitCount() + sqlDataReadWriter.getRecentQuitMissCount();
+          if (recentQuitLoads > 0) {
+            getLogger().log(Level.INFO, String.format("Loaded %d of %d players from the recent quits cache",
+                sqlDataReadWriter.getRecentQuitHitCount(), recentQuitLoads));
+          }
+        }
+      }
+    }
+
+    if (saveJournal != null) {
+      try {
+        saveJournal.close();
+      } catch (IOException e) {
+        getLogger().log(Level.WARNING, "Could not close the save journal", e);
+      }
+    }
+
+    payloadCompressions.forEach((identifier, payloadCompression) ->
+        getLogger().log(Level.INFO, String.format("Compression ratio of %s values: %.2f",
+            identifier, payloadCompression.compressionRatio())));
+  }
+
+  /** Writes the players that are still online, their quit events may not be called anymore. */
+  private void flushOnlinePlayers(PlayerDataReadWriter dataReadWriter, PlayerSyncListener listener) {
+    ImmutableList<UUID> onlinePlayers = listener.drainLoadedPlayers();
+    if (onlinePlayers.isEmpty()) {
+      return;
+    }
+    int flushThreads = getConfig().getInt("writer.shutdown_flush_threads");
+    if (flushThreads < 1) {
+      getLogger().log(Level.WARNING, "writer.shutdown_flush_threads must be positive, saving the players with 1 thread");
+      flushThreads = 1;
+    }
+    ImmutableSet<UUID> unsavedPlayers = dataReadWriter.flush(onlinePlayers, flushThreads,
+        getConfig().getLong("writer.shutdown_flush_timeout_seconds"), TimeUnit.SECONDS);
+    for (UUID playerUUID : unsavedPlayers) {
+      getLogger().log(Level.WARNING, "Could not save data of player " + playerUUID + " before shutting down");
+    }
+    getLogger().log(Level.INFO, String.format("Saved %d of %d online players",
+        onlinePlayers.size() - unsavedPlayers.size(), onlinePlayers.size()));
+  }
+
+  /**
+   * Returns the identifier of this server, if none is configured one is generated once and kept in
+   * the data folder, the saves kept in the journal remain owned by this server across restarts.
+   */
+  private String serverId(FileConfiguration fileConfiguration) throws IOException {
+    String serverId = fileConfiguration.getString("handoff.server_id");
+    if (serverId != null && !serverId.isEmpty()) {
+      return serverId;
+    }
+    Path serverIdPath = getDataFolder().toPath().resolve("server-id");
+    if (Files.exists(serverIdPath)) {
+      serverId = new String(Files.readAllBytes(serverIdPath), StandardCharsets.UTF_8).trim();
+      if (!serverId.isEmpty()) {
+        return serverId;
+      }
+    }
+    serverId = UUID.randomUUID().toString();
+    Files.createDirectories(serverIdPath.getParent());
+    Files.write(serverIdPath, serverId.getBytes(StandardCharsets.UTF_8));
+    return serverId;
+  }
+
+  private static ImmutableMap<String, PayloadCompression> loadPayloadCompressions(
+      FileConfiguration fileConfiguration) {
+    ImmutableMap.Builder<String, PayloadCompression> payloadCompressions = ImmutableMap.builder();
+    ConfigurationSection valueSettings = fileConfiguration.getConfigurationSection("value_settings");
+    if (valueSettings != null) {
+      for (String identifier : valueSettings.getKeys(false)) {
+        String codec = valueSettings.getString(identifier + ".compression");
+        if (codec != null) {
+          payloadCompressions.put(identifier, new PayloadCompression(
+              PayloadCompression.Codec.valueOf(codec),
+              valueSettings.getInt(identifier + ".compression_threshold")));
+        }
       }
     }
+    return payloadCompressions.build();
   }
 
   @Nullable
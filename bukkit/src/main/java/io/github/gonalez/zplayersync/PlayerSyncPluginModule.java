@@ -16,50 +16,87 @@
 package io.github.gonalez.zplayersync;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import io.github.gonalez.zplayersync.data.ConnectionFactory;
 import io.github.gonalez.zplayersync.data.PlayerDataReadWriter;
 import io.github.gonalez.zplayersync.data.PlayerDataApi;
+import io.github.gonalez.zplayersync.data.PlayerDataSchema;
+import io.github.gonalez.zplayersync.data.PlayerHandoff;
+import io.github.gonalez.zplayersync.data.PlayerValueKey;
+import io.github.gonalez.zplayersync.data.PlayerValueRegistry;
+import io.github.gonalez.zplayersync.data.SaveJournal;
 import io.github.gonalez.zplayersync.data.SQLPlayerDataReadWriter;
+import io.github.gonalez.zplayersync.serializer.BinaryObjectSerializer;
 import io.github.gonalez.zplayersync.serializer.ObjectSerializer;
+import io.github.gonalez.zplayersync.serializer.PayloadCompression;
 
 import javax.annotation.Nullable;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /** <internal> */
 public class PlayerSyncPluginModule extends PlayerSyncModule {
-  private final Object lock = new Object();
-
-  private final Map<Class<?>, ObjectSerializer<?>> serializers = new ConcurrentHashMap<>();
+  private final Map<Class<?>, BinaryObjectSerializer<?>> serializers = new ConcurrentHashMap<>();
 
   @Nullable
   protected PlayerDataReadWriter playerDataReadWriter;
 
   private final ConnectionFactory connectionProvider;
 
-  private final ArrayList<PlayerDataApi<?>> valueApis;
+  private final PlayerValueRegistry valueRegistry = new PlayerValueRegistry();
 
   private final Gson gson;
 
   private final ImmutableList<String> excludedValueApis;
 
+  private final ImmutableMap<String, PayloadCompression> payloadCompressions;
+
+  private final boolean forceFullWrites;
+
+  private final PlayerHandoff handoff;
+
+  private final long groupCommitWindowMillis;
+
+  private final int groupCommitMaxSaves;
+
+  @Nullable
+  private final SaveJournal saveJournal;
+
+  private final int recentQuitCacheSize;
+
+  private final long recentQuitCacheExpireMillis;
+
   public PlayerSyncPluginModule(
       ConnectionFactory connectionProvider,
       @Nullable Gson gson,
-      ImmutableList<String> excludedValueApis) {
+      ImmutableList<String> excludedValueApis,
+      ImmutableMap<String, PayloadCompression> payloadCompressions,
+      boolean forceFullWrites,
+      PlayerHandoff handoff,
+      long groupCommitWindowMillis,
+      int groupCommitMaxSaves,
+      @Nullable SaveJournal saveJournal,
+      int recentQuitCacheSize,
+      long recentQuitCacheExpireMillis) {
     this.connectionProvider = connectionProvider;
+    this.handoff = handoff;
     this.gson = gson;
     this.excludedValueApis = excludedValueApis;
-    valueApis = new ArrayList<>();
+    this.payloadCompressions = payloadCompressions;
+    this.forceFullWrites = forceFullWrites;
+    this.groupCommitWindowMillis = groupCommitWindowMillis;
+    this.groupCommitMaxSaves = groupCommitMaxSaves;
+    this.saveJournal = saveJournal;
+    this.recentQuitCacheSize = recentQuitCacheSize;
+    this.recentQuitCacheExpireMillis = recentQuitCacheExpireMillis;
   }
 
   public PlayerSyncPluginModule(
       ConnectionFactory connectionProvider) {
-    this(connectionProvider, null, ImmutableList.of());
+    this(connectionProvider, null, ImmutableList.of(), ImmutableMap.of(), false, new PlayerHandoff(), 0, 32, null, 0, 0);
   }
 
   @Override
@@ -67,33 +104,94 @@ public class PlayerSyncPluginModule extends PlayerSyncModule {
     return playerDataReadWriter;
   }
 
+  @Override
+  public PlayerValueRegistry getValueRegistry() {
+    return valueRegistry;
+  }
+
   @Override
   public void init() {
-    playerDataReadWriter = new SQLPlayerDataReadWriter(connectionProvider) {
-      @SuppressWarnings("unchecked")
+    playerDataReadWriter = createDataReadWriter();
+  }
+
+  /** Creates the read writer of the values of players, by default one backed by sql. */
+  protected PlayerDataReadWriter createDataReadWriter() {
+    return new SQLPlayerDataReadWriter(connectionProvider, new PlayerDataSchema(), handoff) {
+      @Nullable
+      @Override
+      protected <T> BinaryObjectSerializer<T> findSerializerOfType(Class<T> type) {
+        return findSerializer(type);
+      }
+
+      @Override
+      protected PayloadCompression findPayloadCompression(String identifier) {
+        PayloadCompression payloadCompression = findConfiguredCompression(identifier);
+        return payloadCompression != null ? payloadCompression : super.findPayloadCompression(identifier);
+      }
+
+      @Override
+      protected boolean forceFullWrites() {
+        return forceFullWrites;
+      }
+
+      @Override
+      protected long groupCommitWindowMillis() {
+        return groupCommitWindowMillis;
+      }
+
+      @Override
+      protected int groupCommitMaxSaves() {
+        return groupCommitMaxSaves;
+      }
+
       @Nullable
       @Override
-      protected <T> ObjectSerializer<T> findSerializerOfType(Class<T> type) {
-        if (!serializers.containsKey(type)) {
-          if (gson != null) {
-            ObjectSerializer<T> objectSerializer = createSerializerFromGson(type);
-            serializers.put(type, objectSerializer);
-            return objectSerializer;
-          }
-          return null;
-        }
-        return (ObjectSerializer<T>) serializers.get(type);
+      protected SaveJournal saveJournal() {
+        return saveJournal;
       }
 
       @Override
-      protected ImmutableList<PlayerDataApi<?>> providePlayerValues() {
-        synchronized (lock) {
-          return ImmutableList.copyOf(valueApis);
-        }
+      protected int recentQuitCacheSize() {
+        return recentQuitCacheSize;
+      }
+
+      @Override
+      protected long recentQuitCacheExpireMillis() {
+        return recentQuitCacheExpireMillis;
+      }
+
+      @Override
+      protected ImmutableList<PlayerValueKey<?>> providePlayerValues() {
+        return playerValues();
       }
     };
   }
 
+  /**
+   * Finds the serializer registered for the given type, falling back to gson if available. Only
+   * called when the sync plan of the read writer is built, not on every read and write.
+   */
+  @SuppressWarnings("unchecked")
+  @Nullable
+  protected <T> BinaryObjectSerializer<T> findSerializer(Class<T> type) {
+    if (gson != null) {
+      return (BinaryObjectSerializer<T>) serializers.computeIfAbsent(type,
+          unused -> BinaryObjectSerializer.of(createSerializerFromGson(type)));
+    }
+    return (BinaryObjectSerializer<T>) serializers.get(type);
+  }
+
+  /** @return the compression configured for the values of the given identifier, if any. */
+  @Nullable
+  protected PayloadCompression findConfiguredCompression(String identifier) {
+    return payloadCompressions.get(identifier);
+  }
+
+  /** @return the keys of the value apis initialized so far. */
+  protected ImmutableList<PlayerValueKey<?>> playerValues() {
+    return valueRegistry.keys();
+  }
+
   @Nullable
   <T> ObjectSerializer<T> createSerializerFromGson(Class<T> type) {
     if (gson == null)
@@ -115,14 +213,23 @@ public class PlayerSyncPluginModule extends PlayerSyncModule {
   @Override
   public <T> void initializePlayerValueApi(PlayerDataApi<T> valueApi) {
     if (!excludedValueApis.contains(valueApi.identifier())) {
-      synchronized (lock) {
-        valueApis.add(valueApi);
-      }
+      valueRegistry.register(valueApi);
+      rebuildSyncPlan();
     }
   }
 
   @Override
   public <T> void registerSerializer(Class<T> type, ObjectSerializer<T> serializer) {
-    serializers.put(type, serializer);
+    // Serializers that only work with strings are stored as UTF-8 bytes
+    serializers.put(type, BinaryObjectSerializer.of(serializer));
+    rebuildSyncPlan();
+  }
+
+  /** Binds the values to their serializers again, once the read writer was created. */
+  private void rebuildSyncPlan() {
+    PlayerDataReadWriter playerDataReadWriter = this.playerDataReadWriter;
+    if (playerDataReadWriter != null) {
+      playerDataReadWriter.rebuildSyncPlan();
+    }
   }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import io.github.gonalez.zplayersync.data.PlayerDataReadWriter;
+import io.github.gonalez.zplayersync.metrics.Histogram;
+import io.github.gonalez.zplayersync.metrics.SyncError;
+import io.github.gonalez.zplayersync.metrics.SyncStage;
+import io.github.gonalez.zplayersync.metrics.ValueMetrics;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@code /zpsync stats [value]} command, shows the latencies per stage, payload sizes and
+ * errors recorded for every value, or only for the given value.
+ */
+class SyncStatsCommand implements CommandExecutor {
+  private final PlayerDataReadWriter dataReadWriter;
+
+  SyncStatsCommand(PlayerDataReadWriter dataReadWriter) {
+    this.dataReadWriter = checkNotNull(dataReadWriter);
+  }
+
+  @Override
+  public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+    if (args.length == 0 || args.length > 2 || !args[0].equalsIgnoreCase("stats")) {
+      return false;
+    }
+
+    boolean found = false;
+    for (ValueMetrics valueMetrics : dataReadWriter.getMetrics().values().values()) {
+      if (args.length == 2 && !args[1].equalsIgnoreCase(valueMetrics.getIdentifier())) {
+        continue;
+      }
+      found = true;
+      sender.sendMessage(String.format(Locale.ROOT, "%s: errors %d serialization, %d database, %d other",
+          valueMetrics.getIdentifier(),
+          valueMetrics.getErrorCount(SyncError.SERIALIZATION),
+          valueMetrics.getErrorCount(SyncError.DATABASE),
+          valueMetrics.getErrorCount(SyncError.OTHER)));
+      Histogram payloadSizes = valueMetrics.payloadSizes();
+      if (payloadSizes.getCount() > 0) {
+        sender.sendMessage(String.format(Locale.ROOT, "  size: p50 %d B, p99 %d B, max %d B (%d values)",
+            payloadSizes.getP50(), payloadSizes.getP99(), payloadSizes.getMax(), payloadSizes.getCount()));
+      }
+      for (SyncStage stage : SyncStage.values()) {
+        Histogram latency = valueMetrics.latency(stage);
+        if (latency.getCount() > 0) {
+          sender.sendMessage(String.format(Locale.ROOT, "  %s: p50 %.2f ms, p99 %.2f ms, max %.2f ms (%d times)",
+              stage.name().toLowerCase(Locale.ROOT),
+              millis(latency.getP50()), millis(latency.getP99()), millis(latency.getMax()), latency.getCount()));
+        }
+      }
+    }
+    if (!found) {
+      sender.sendMessage(args.length == 2 ? "No statistics recorded for " + args[1] : "No statistics recorded yet");
+    }
+    return true;
+  }
+
+  private static double millis(long nanos) {
+    return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.gonalez.zplayersync.metrics.SyncError;
+import io.github.gonalez.zplayersync.metrics.SyncMetrics;
+import io.github.gonalez.zplayersync.metrics.SyncStage;
+import io.github.gonalez.zplayersync.metrics.SyncTracer;
+import io.github.gonalez.zplayersync.serializer.BinaryObjectSerializer;
+import io.github.gonalez.zplayersync.serializer.PayloadCompression;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Base class for PlayerDataReadWriter which reads and writes to a {@link SegmentStore} in a local
+ * directory, for single servers and testing without an external database.
+ *
+ * <p>All the values of a player are stored in a single record. Records are forced to disk every
+ * second and the store is compacted in the background once most of it is garbage.
+ */
+public abstract class EmbeddedPlayerDataReadWriter implements PlayerDataReadWriter {
+  private static final Logger LOGGER = Logger.getLogger(EmbeddedPlayerDataReadWriter.class.getName());
+
+  private static final PayloadCompression NO_COMPRESSION =
+      new PayloadCompression(PayloadCompression.Codec.NONE, 0);
+
+  private static final long FLUSH_INTERVAL_MILLIS = 1000;
+  private static final long COMPACTION_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final double COMPACTION_GARBAGE_RATIO = 0.5;
+  private static final long SHUTDOWN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private final Path directory;
+  private final long maxSegmentBytes;
+  private final SyncMetrics metrics = new SyncMetrics();
+
+  // The values bound to their serializers, replaced as a whole when rebuilt
+  private final SyncPlan.Holder<SyncPlan> syncPlan = new SyncPlan.Holder<>(this::buildSyncPlan);
+
+  @Nullable
+  private volatile SegmentStore store;
+  @Nullable
+  private ScheduledExecutorService maintenanceExecutor;
+
+  /**
+   * @param directory the directory in which the segment files are stored.
+   * @param maxSegmentBytes the size after which a new segment file is started.
+   */
+  public EmbeddedPlayerDataReadWriter(Path directory, long maxSegmentBytes) {
+    this.directory = checkNotNull(directory);
+    this.maxSegmentBytes = maxSegmentBytes;
+  }
+
+  public boolean isOpened() {
+    return store != null;
+  }
+
+  @Override
+  public void open() {
+    if (isOpened())
+      return;
+
+    synchronized (this) {
+      if (isOpened())
+        return;
+
+      SegmentStore store;
+      try {
+        store = new SegmentStore(directory, maxSegmentBytes);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("zplayersync-embedded-%d")
+              .setDaemon(true)
+              .build());
+      maintenanceExecutor.scheduleWithFixedDelay(() -> {
+        try {
+          store.flush();
+        } catch (IOException e) {
+          LOGGER.log(Level.SEVERE, "Could not flush the player data store", e);
+        }
+      }, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+      maintenanceExecutor.scheduleWithFixedDelay(() -> {
+        try {
+          if (store.garbageRatio() > COMPACTION_GARBAGE_RATIO) {
+            store.compact();
+          }
+        } catch (IOException e) {
+          LOGGER.log(Level.SEVERE, "Could not compact the player data store", e);
+        }
+      }, COMPACTION_INTERVAL_MILLIS, COMPACTION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+      this.store = store;
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    SegmentStore store = this.store;
+    if (store == null)
+      return;
+
+    // Interrupting a flush or compaction would close the channels of the store under it
+    maintenanceExecutor.shutdown();
+    try {
+      if (!maintenanceExecutor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        LOGGER.log(Level.WARNING, "Maintenance of the player data store did not finish in time, closing anyway");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    maintenanceExecutor = null;
+    try {
+      store.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    this.store = null;
+  }
+
+  /**
+   * Finds the appropriate object serializer of the given class or {@code null} if not found. Only
+   * called when the sync plan is built, see {@link #rebuildSyncPlan()}.
+   */
+  @Nullable
+  protected abstract <T> BinaryObjectSerializer<T> findSerializerOfType(Class<T> type);
+
+  /** List of the keys of all available {@link PlayerDataApi} to be used, indexed by their id. */
+  protected abstract ImmutableList<PlayerValueKey<?>> providePlayerValues();
+
+  /**
+   * Finds the compression applied to the serialized values of the given identifier before they
+   * are stored. By default, values are stored without compression.
+   */
+  protected PayloadCompression findPayloadCompression(String identifier) {
+    return NO_COMPRESSION;
+  }
+
+  @Override
+  public SyncMetrics getMetrics() {
+    return metrics;
+  }
+
+  /** @return the online-player matching the given uuid. */
+  public Player getPlayer(UUID uuid) {
+    return Bukkit.getPlayer(uuid);
+  }
+
+  @Override
+  public PlayerSnapshot read(UUID uuid) {
+    open();
+
+    SyncPlan plan = syncPlan.get();
+    Map<String, byte[]> storedValues = readRecord(uuid);
+    PlayerSnapshot.Builder snapshot = PlayerSnapshot.builder(plan.keys());
+    for (SyncPlan.Entry<?> entry : plan.entries()) {
+      byte[] storedValue = storedValues.get(entry.key().identifier());
+      if (storedValue != null) {
+        entry.deserialize(uuid, snapshot, PayloadCompression.decompress(storedValue), metrics);
+      }
+    }
+    return snapshot.build();
+  }
+
+  @Override
+  public void write(UUID uuid) {
+    captureWrite(uuid).run();
+  }
+
+  @Override
+  public Runnable captureWrite(UUID uuid) {
+    // Check the player for the given uuid. If no player is connected we can
+    // skip writing since we need the player to get the appropriate values.
+    Player player = getPlayer(uuid);
+    if (player == null) {
+      return () -> {};
+    }
+
+    // Only copying the values is done on the calling thread, the snapshots
+    // are serialized and compressed later by the thread running the write.
+    SyncPlan plan = syncPlan.get();
+    PlayerSnapshot snapshot = plan.capture(player);
+    return () -> {
+      open();
+
+      // Values without a serializer at the moment are kept as they are, this is not a read of the
+      // player so it is not recorded in the metrics
+      Map<String, byte[]> storedValues;
+      try {
+        storedValues = loadRecord(uuid);
+      } catch (IOException e) {
+        metrics.recordError(SyncMetrics.ALL_VALUES, SyncError.DATABASE);
+        throw new RuntimeException(e);
+      }
+      for (SyncPlan.Entry<?> entry : plan.entries()) {
+        byte[] serializedValue = entry.serialize(uuid, snapshot, metrics);
+        if (serializedValue != null) {
+          storedValues.put(entry.key().identifier(), entry.compression().compress(serializedValue));
+        }
+      }
+      long startNanos = System.nanoTime();
+      SyncTracer.DatabaseSpan databaseSpan = metrics.getTracer().startDatabase(uuid, true);
+      byte[] record;
+      try {
+        record = encodeRecord(storedValues);
+        store.put(uuid, record);
+      } catch (IOException e) {
+        metrics.recordError(SyncMetrics.ALL_VALUES, SyncError.DATABASE);
+        throw new RuntimeException(e);
+      }
+      long durationNanos = System.nanoTime() - startNanos;
+      metrics.recordLatency(SyncMetrics.ALL_VALUES, SyncStage.DATABASE, durationNanos);
+      databaseSpan.finish(storedValues.size(), record.length);
+    };
+  }
+
+  /**
+   * Builds a new plan from {@link #providePlayerValues()}, {@link #findSerializerOfType(Class)}
+   * and {@link #findPayloadCompression(String)}, replacing the current one. Reads and writes that
+   * already started keep using the plan they started with.
+   */
+  @Override
+  public void rebuildSyncPlan() {
+    syncPlan.rebuild();
+  }
+
+  private SyncPlan buildSyncPlan() {
+    return SyncPlan.bind(providePlayerValues(), new SyncPlan.Binder() {
+      @Nullable
+      @Override
+      public <T> BinaryObjectSerializer<T> findSerializerOfType(Class<T> type) {
+        return EmbeddedPlayerDataReadWriter.this.findSerializerOfType(type);
+      }
+
+      @Override
+      public PayloadCompression findPayloadCompression(String identifier) {
+        return EmbeddedPlayerDataReadWriter.this.findPayloadCompression(identifier);
+      }
+    });
+  }
+
+  /** Reads the stored values of the given player, recording the read in the metrics. */
+  private Map<String, byte[]> readRecord(UUID uuid) {
+    long startNanos = System.nanoTime();
+    SyncTracer.DatabaseSpan databaseSpan = metrics.getTracer().startDatabase(uuid, false);
+    byte[] record;
+    Map<String, byte[]> values;
+    try {
+      record = store.get(uuid);
+      values = decodeRecord(record);
+    } catch (IOException e) {
+      metrics.recordError(SyncMetrics.ALL_VALUES, SyncError.DATABASE);
+      throw new RuntimeException(e);
+    }
+    long durationNanos = System.nanoTime() - startNanos;
+    metrics.recordLatency(SyncMetrics.ALL_VALUES, SyncStage.DATABASE, durationNanos);
+    databaseSpan.finish(values.size(), record == null ? 0 : record.length);
+    return values;
+  }
+
+  /** Reads the stored values of the given player, without recording the read in the metrics. */
+  private Map<String, byte[]> loadRecord(UUID uuid) throws IOException {
+    return decodeRecord(store.get(uuid));
+  }
+
+  private static byte[] encodeRecord(Map<String, byte[]> values) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (DataOutputStream output = new DataOutputStream(outputStream)) {
+      output.writeInt(values.size());
+      for (Map.Entry<String, byte[]> value : values.entrySet()) {
+        output.writeUTF(value.getKey());
+        output.writeInt(value.getValue().length);
+        output.write(value.getValue());
+      }
+    }
+    return outputStream.toByteArray();
+  }
+
+  private static Map<String, byte[]> decodeRecord(@Nullable byte[] record) throws IOException {
+    if (record == null) {
+      return new LinkedHashMap<>();
+    }
+    try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(record))) {
+      int valueCount = input.readInt();
+      Map<String, byte[]> values = new LinkedHashMap<>();
+      for (int i = 0; i < valueCount; i++) {
+        String identifier = input.readUTF();
+        byte[] data = new byte[input.readInt()];
+        input.readFully(data);
+        values.put(identifier, data);
+      }
+      return values;
+    }
+  }
+}
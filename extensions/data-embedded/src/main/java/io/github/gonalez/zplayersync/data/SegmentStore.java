@@ -0,0 +1,348 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured store of the data of players in segment files.
+ *
+ * <p>Every put appends a record with the uuid of the player and its data to the active segment,
+ * framed by the length and CRC32 of the record, and an in-memory index keeps the position of the
+ * latest record of each player. Once the active segment reaches the maximum size a new one is
+ * started. Records that were replaced by newer ones are garbage, {@link #compact()} rewrites the
+ * live records into new segments and deletes the old ones.
+ *
+ * <p>Putting data equal to the stored data of the player writes nothing. The data is compared by
+ * its length, CRC32 and a 64-bit murmur3 fingerprint kept in the index, so changed data with a
+ * colliding CRC32 is still written.
+ *
+ * <p>Records are written to the operating system right away but only forced to disk by
+ * {@link #flush()}, records that are incomplete or corrupted, e.g. because the server crashed,
+ * are discarded when the store is opened.
+ */
+public class SegmentStore implements Closeable {
+  private static final Logger LOGGER = Logger.getLogger(SegmentStore.class.getName());
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".dat";
+  // The length and checksum of the data, followed by the uuid of the player
+  private static final int HEADER_SIZE = 4 + 4 + 16;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<UUID, IndexEntry> index = new HashMap<>();
+  private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+  private final Path directory;
+  private final long maxSegmentBytes;
+
+  private Segment activeSegment;
+  private long liveBytes;
+  private long totalBytes;
+
+  /** Opens the store in the given directory, indexing the records of the existing segments. */
+  public SegmentStore(Path directory, long maxSegmentBytes) throws IOException {
+    checkArgument(maxSegmentBytes > HEADER_SIZE, "maxSegmentBytes is too small");
+    this.directory = checkNotNull(directory);
+    this.maxSegmentBytes = maxSegmentBytes;
+    Files.createDirectories(directory);
+    load();
+  }
+
+  /** A segment file. */
+  private static class Segment {
+    private final long id;
+    private final Path path;
+    private final FileChannel channel;
+    private long size;
+
+    Segment(long id, Path path, FileChannel channel) {
+      this.id = id;
+      this.path = path;
+      this.channel = channel;
+    }
+  }
+
+  /** The position of the latest record of a player. */
+  private static class IndexEntry {
+    private final Segment segment;
+    private final long position;
+    private final int length;
+    private final int checksum;
+    private final long fingerprint;
+
+    IndexEntry(Segment segment, long position, int length, int checksum, long fingerprint) {
+      this.segment = segment;
+      this.position = position;
+      this.length = length;
+      this.checksum = checksum;
+      this.fingerprint = fingerprint;
+    }
+
+    int recordSize() {
+      return HEADER_SIZE + length;
+    }
+  }
+
+  /** @return the data of the given player, or {@code null} if the player has no data. */
+  @Nullable
+  public byte[] get(UUID uuid) throws IOException {
+    lock.readLock().lock();
+    try {
+      IndexEntry entry = index.get(uuid);
+      if (entry == null) {
+        return null;
+      }
+      ByteBuffer data = ByteBuffer.allocate(entry.length);
+      readFully(entry.segment.channel, data, entry.position + HEADER_SIZE);
+      return data.array();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Stores the given data of the player, replacing its previous data.
+   *
+   * @return {@code false} if the data is the same as the stored one, in which case nothing is
+   *     written.
+   */
+  public boolean put(UUID uuid, byte[] data) throws IOException {
+    int checksum = checksum(uuid, data);
+    long fingerprint = fingerprint(data);
+    lock.writeLock().lock();
+    try {
+      IndexEntry previous = index.get(uuid);
+      if (previous != null && previous.length == data.length
+          && previous.checksum == checksum && previous.fingerprint == fingerprint) {
+        return false;
+      }
+      append(uuid, data, checksum, fingerprint);
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Forces the records written so far to disk. */
+  public void flush() throws IOException {
+    lock.readLock().lock();
+    try {
+      activeSegment.channel.force(false);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** @return the fraction of the bytes of the segments used by records that were replaced. */
+  public double garbageRatio() {
+    lock.readLock().lock();
+    try {
+      return totalBytes == 0 ? 0 : 1 - (double) liveBytes / totalBytes;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Rewrites the live records into new segments and deletes the old segments. */
+  public void compact() throws IOException {
+    lock.writeLock().lock();
+    try {
+      ImmutableList<Segment> oldSegments = ImmutableList.copyOf(segments.values());
+      List<Map.Entry<UUID, IndexEntry>> entries = new ArrayList<>(index.entrySet());
+      activeSegment.channel.force(false);
+      long firstSegmentId = segments.lastKey() + 1;
+      activeSegment = createSegment(firstSegmentId);
+      index.clear();
+      liveBytes = 0;
+      totalBytes = 0;
+      for (Map.Entry<UUID, IndexEntry> entry : entries) {
+        IndexEntry indexEntry = entry.getValue();
+        ByteBuffer data = ByteBuffer.allocate(indexEntry.length);
+        readFully(indexEntry.segment.channel, data, indexEntry.position + HEADER_SIZE);
+        append(entry.getKey(), data.array(), indexEntry.checksum, indexEntry.fingerprint);
+      }
+      // The old segments can only be deleted once the new ones are on disk
+      for (Segment segment : segments.tailMap(firstSegmentId, true).values()) {
+        segment.channel.force(false);
+      }
+      for (Segment segment : oldSegments) {
+        segments.remove(segment.id);
+        segment.channel.close();
+        Files.delete(segment.path);
+      }
+      LOGGER.log(Level.FINE, "Compacted {0} segments into {1}",
+          new Object[]{oldSegments.size(), segments.size()});
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      activeSegment.channel.force(false);
+      for (Segment segment : segments.values()) {
+        segment.channel.close();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void append(UUID uuid, byte[] data, int checksum, long fingerprint) throws IOException {
+    int recordSize = HEADER_SIZE + data.length;
+    if (activeSegment.size > 0 && activeSegment.size + recordSize > maxSegmentBytes) {
+      activeSegment.channel.force(false);
+      activeSegment = createSegment(activeSegment.id + 1);
+    }
+
+    ByteBuffer record = ByteBuffer.allocate(recordSize);
+    record.putInt(data.length)
+        .putInt(checksum)
+        .putLong(uuid.getMostSignificantBits())
+        .putLong(uuid.getLeastSignificantBits())
+        .put(data);
+    record.flip();
+    long position = activeSegment.size;
+    while (record.hasRemaining()) {
+      activeSegment.channel.write(record, position + record.position());
+    }
+    activeSegment.size += recordSize;
+
+    IndexEntry previous = index.put(uuid, new IndexEntry(activeSegment, position, data.length, checksum, fingerprint));
+    if (previous != null) {
+      liveBytes -= previous.recordSize();
+    }
+    liveBytes += recordSize;
+    totalBytes += recordSize;
+  }
+
+  private Segment createSegment(long id) throws IOException {
+    Path path = directory.resolve(SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+    Segment segment = new Segment(id, path, FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    segment.size = segment.channel.size();
+    segments.put(id, segment);
+    return segment;
+  }
+
+  private void load() throws IOException {
+    List<Long> segmentIds = new ArrayList<>();
+    try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path path : paths) {
+        String fileName = path.getFileName().toString();
+        try {
+          segmentIds.add(Long.parseLong(
+              fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length())));
+        } catch (NumberFormatException e) {
+          LOGGER.log(Level.WARNING, "Ignoring unknown file {0}", path);
+        }
+      }
+    }
+    segmentIds.sort(null);
+
+    for (long segmentId : segmentIds) {
+      loadSegment(createSegment(segmentId));
+    }
+    activeSegment = segments.isEmpty() ? createSegment(0) : segments.lastEntry().getValue();
+  }
+
+  private void loadSegment(Segment segment) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    long position = 0;
+    while (position + HEADER_SIZE <= segment.size) {
+      header.clear();
+      readFully(segment.channel, header, position);
+      header.flip();
+      int length = header.getInt();
+      int checksum = header.getInt();
+      UUID uuid = new UUID(header.getLong(), header.getLong());
+      if (length < 0 || position + HEADER_SIZE + length > segment.size) {
+        break;
+      }
+      ByteBuffer data = ByteBuffer.allocate(length);
+      readFully(segment.channel, data, position + HEADER_SIZE);
+      if (checksum != checksum(uuid, data.array())) {
+        break;
+      }
+
+      IndexEntry entry = new IndexEntry(segment, position, length, checksum, fingerprint(data.array()));
+      IndexEntry previous = index.put(uuid, entry);
+      if (previous != null) {
+        liveBytes -= previous.recordSize();
+      }
+      liveBytes += entry.recordSize();
+      totalBytes += entry.recordSize();
+      position += entry.recordSize();
+    }
+
+    if (position < segment.size) {
+      LOGGER.log(Level.WARNING, "Discarding {0} bytes of incomplete records at the end of {1}",
+          new Object[]{segment.size - position, segment.path});
+      segment.channel.truncate(position);
+      segment.size = position;
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of segment");
+      }
+    }
+  }
+
+  private static long fingerprint(byte[] data) {
+    return Hashing.murmur3_128().hashBytes(data).asLong();
+  }
+
+  private static int checksum(UUID uuid, byte[] data) {
+    CRC32 crc32 = new CRC32();
+    ByteBuffer uuidBytes = ByteBuffer.allocate(16)
+        .putLong(uuid.getMostSignificantBits())
+        .putLong(uuid.getLeastSignificantBits());
+    crc32.update(uuidBytes.array(), 0, 16);
+    crc32.update(data, 0, data.length);
+    return (int) crc32.getValue();
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import io.github.gonalez.zplayersync.serializer.BinaryObjectSerializer;
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class EmbeddedPlayerDataReadWriterTest {
+  private static final BinaryObjectSerializer<String> STRING_SERIALIZER = new BinaryObjectSerializer<String>() {
+    @Override
+    public byte[] serializeBytes(String value) {
+      return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String deserializeBytes(byte[] data) {
+      return new String(data, StandardCharsets.UTF_8);
+    }
+  };
+
+  @TempDir
+  Path directory;
+
+  private final PlayerValueRegistry registry = new PlayerValueRegistry();
+  private final Map<Class<?>, BinaryObjectSerializer<?>> serializers = new ConcurrentHashMap<>();
+  private final UUID uuid = UUID.randomUUID();
+  private Player player;
+  private TestReadWriter readWriter;
+
+  @BeforeEach
+  public void setUp() {
+    player = mock(Player.class);
+    when(player.getUniqueId()).thenReturn(uuid);
+    readWriter = new TestReadWriter();
+    readWriter.open();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    readWriter.close();
+  }
+
+  @Test
+  public void readsTheWrittenValues() {
+    PlayerValueKey<String> name = registry.register(new TestValueApi("name"));
+    serializers.put(String.class, STRING_SERIALIZER);
+    name.valueApi().set(player, "Steve");
+
+    readWriter.write(uuid);
+    readWriter.close();
+    readWriter.open();
+
+    PlayerSnapshot snapshot = readWriter.read(uuid);
+    assertEquals("Steve", snapshot.get(name));
+    assertEquals(1, snapshot.valueCount());
+  }
+
+  @Test
+  public void bindsValuesRegisteredLaterOnceThePlanIsRebuilt() {
+    PlayerValueKey<String> name = registry.register(new TestValueApi("name"));
+    serializers.put(String.class, STRING_SERIALIZER);
+    // Builds the plan with the values registered so far
+    readWriter.read(uuid);
+    PlayerValueKey<String> title = registry.register(new TestValueApi("title"));
+    name.valueApi().set(player, "Steve");
+    title.valueApi().set(player, "Builder");
+
+    readWriter.write(uuid);
+    assertNull(readWriter.read(uuid).get(title));
+
+    readWriter.rebuildSyncPlan();
+    readWriter.write(uuid);
+    PlayerSnapshot snapshot = readWriter.read(uuid);
+    assertEquals("Steve", snapshot.get(name));
+    assertEquals("Builder", snapshot.get(title));
+  }
+
+  @Test
+  public void keepsTheStoredValuesWithoutASerializer() {
+    PlayerValueKey<String> name = registry.register(new TestValueApi("name"));
+    serializers.put(String.class, STRING_SERIALIZER);
+    name.valueApi().set(player, "Steve");
+    readWriter.write(uuid);
+
+    serializers.remove(String.class);
+    readWriter.rebuildSyncPlan();
+    name.valueApi().set(player, "Alex");
+    readWriter.write(uuid);
+    assertFalse(readWriter.read(uuid).contains(name));
+
+    serializers.put(String.class, STRING_SERIALIZER);
+    readWriter.rebuildSyncPlan();
+    assertEquals("Steve", readWriter.read(uuid).get(name));
+  }
+
+  private class TestReadWriter extends EmbeddedPlayerDataReadWriter {
+    TestReadWriter() {
+      super(directory, 1024 * 1024);
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    protected <T> BinaryObjectSerializer<T> findSerializerOfType(Class<T> type) {
+      return (BinaryObjectSerializer<T>) serializers.get(type);
+    }
+
+    @Override
+    protected ImmutableList<PlayerValueKey<?>> providePlayerValues() {
+      return registry.keys();
+    }
+
+    @Override
+    public Player getPlayer(UUID uuid) {
+      return uuid.equals(player.getUniqueId()) ? player : null;
+    }
+  }
+
+  /** Value of the players kept in memory, keyed by their uuid. */
+  private static class TestValueApi implements PlayerDataApi<String> {
+    private final String identifier;
+    private final Map<UUID, String> values = new ConcurrentHashMap<>();
+
+    TestValueApi(String identifier) {
+      this.identifier = identifier;
+    }
+
+    @Override
+    public Class<String> type() {
+      return String.class;
+    }
+
+    @Override
+    public String identifier() {
+      return identifier;
+    }
+
+    @Override
+    public String read(Player input) {
+      return values.get(input.getUniqueId());
+    }
+
+    @Override
+    public void set(Player input, String value) {
+      values.put(input.getUniqueId(), value);
+    }
+  }
+}
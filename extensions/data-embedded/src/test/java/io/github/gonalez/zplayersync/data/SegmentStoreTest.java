@@ -0,0 +1,190 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class SegmentStoreTest {
+  private static final long MAX_SEGMENT_BYTES = 1024 * 1024;
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void readsTheLatestDataAfterReopening() throws IOException {
+    UUID first = UUID.randomUUID(), second = UUID.randomUUID();
+    try (SegmentStore store = new SegmentStore(directory, MAX_SEGMENT_BYTES)) {
+      store.put(first, bytes(1, 10));
+      store.put(second, bytes(2, 20));
+      store.put(first, bytes(3, 30));
+    }
+
+    try (SegmentStore store = new SegmentStore(directory, MAX_SEGMENT_BYTES)) {
+      assertArrayEquals(bytes(3, 30), store.get(first));
+      assertArrayEquals(bytes(2, 20), store.get(second));
+      assertNull(store.get(UUID.randomUUID()));
+    }
+  }
+
+  @Test
+  public void skipsOnlyDataEqualToTheStoredOne() throws IOException {
+    UUID uuid = UUID.randomUUID();
+    try (SegmentStore store = new SegmentStore(directory, MAX_SEGMENT_BYTES)) {
+      assertTrue(store.put(uuid, bytes(1, 64)));
+      assertFalse(store.put(uuid, bytes(1, 64)));
+      // Same length, different data
+      assertTrue(store.put(uuid, bytes(2, 64)));
+      assertArrayEquals(bytes(2, 64), store.get(uuid));
+    }
+  }
+
+  @Test
+  public void discardsATruncatedRecordWhenReopening() throws IOException {
+    UUID kept = UUID.randomUUID(), truncated = UUID.randomUUID();
+    try (SegmentStore store = new SegmentStore(directory, MAX_SEGMENT_BYTES)) {
+      store.put(kept, bytes(1, 100));
+      store.put(truncated, bytes(2, 100));
+    }
+    // Cut the last record in half, as if the server crashed while writing it
+    Path segment = segments().get(0);
+    long size = Files.size(segment);
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.truncate(size - 50);
+    }
+
+    try (SegmentStore store = new SegmentStore(directory, MAX_SEGMENT_BYTES)) {
+      assertArrayEquals(bytes(1, 100), store.get(kept));
+      assertNull(store.get(truncated));
+      // New records are appended after the last complete one
+      store.put(truncated, bytes(3, 100));
+    }
+    try (SegmentStore store = new SegmentStore(directory, MAX_SEGMENT_BYTES)) {
+      assertArrayEquals(bytes(1, 100), store.get(kept));
+      assertArrayEquals(bytes(3, 100), store.get(truncated));
+    }
+  }
+
+  @Test
+  public void discardsACorruptedRecordWhenReopening() throws IOException {
+    UUID uuid = UUID.randomUUID();
+    try (SegmentStore store = new SegmentStore(directory, MAX_SEGMENT_BYTES)) {
+      store.put(uuid, bytes(1, 100));
+      store.put(uuid, bytes(2, 100));
+    }
+    Path segment = segments().get(0);
+    byte[] content = Files.readAllBytes(segment);
+    content[content.length - 1] ^= 0xFF;
+    Files.write(segment, content);
+
+    try (SegmentStore store = new SegmentStore(directory, MAX_SEGMENT_BYTES)) {
+      assertArrayEquals(bytes(1, 100), store.get(uuid));
+    }
+  }
+
+  @Test
+  public void rollsOverToANewSegmentOnceFull() throws IOException {
+    List<UUID> uuids = new ArrayList<>();
+    try (SegmentStore store = new SegmentStore(directory, 1024)) {
+      for (int i = 0; i < 20; i++) {
+        UUID uuid = UUID.randomUUID();
+        uuids.add(uuid);
+        store.put(uuid, bytes(i, 200));
+      }
+    }
+
+    List<Path> segments = segments();
+    assertTrue(segments.size() > 1, "expected several segments");
+    for (Path segment : segments) {
+      assertTrue(Files.size(segment) <= 1024, segment + " is larger than the maximum");
+    }
+    try (SegmentStore store = new SegmentStore(directory, 1024)) {
+      for (int i = 0; i < uuids.size(); i++) {
+        assertArrayEquals(bytes(i, 200), store.get(uuids.get(i)));
+      }
+    }
+  }
+
+  @Test
+  public void compactionKeepsOnlyTheLatestRecords() throws IOException {
+    List<UUID> uuids = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      uuids.add(UUID.randomUUID());
+    }
+    List<Path> oldSegments;
+    try (SegmentStore store = new SegmentStore(directory, 1024)) {
+      for (int round = 0; round < 10; round++) {
+        for (int i = 0; i < uuids.size(); i++) {
+          store.put(uuids.get(i), bytes(round * 10 + i, 100));
+        }
+      }
+      assertTrue(store.garbageRatio() > 0.8);
+      oldSegments = segments();
+
+      store.compact();
+
+      assertEquals(0, store.garbageRatio(), 0.0001);
+      for (Path segment : oldSegments) {
+        assertFalse(Files.exists(segment), segment + " was not deleted");
+      }
+      for (int i = 0; i < uuids.size(); i++) {
+        assertArrayEquals(bytes(90 + i, 100), store.get(uuids.get(i)));
+      }
+      // Writes after the compaction go to the new segments
+      store.put(uuids.get(0), bytes(100, 100));
+    }
+
+    try (SegmentStore store = new SegmentStore(directory, 1024)) {
+      assertArrayEquals(bytes(100, 100), store.get(uuids.get(0)));
+      for (int i = 1; i < uuids.size(); i++) {
+        assertArrayEquals(bytes(90 + i, 100), store.get(uuids.get(i)));
+      }
+    }
+  }
+
+  private List<Path> segments() throws IOException {
+    try (Stream<Path> paths = Files.list(directory)) {
+      return paths.filter(path -> path.getFileName().toString().startsWith("segment-"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static byte[] bytes(int seed, int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (seed * 31 + i);
+    }
+    return data;
+  }
+}
@@ -26,4 +26,15 @@ public interface ConnectionFactory {
    * {@link SQLException} if failed to establish connection.
    */
   Connection create() throws SQLException;
+
+  /**
+   * Whether this factory was closed and can no longer create connections. By default, this
+   * method returns {@code false}.
+   */
+  default boolean isClosed() {
+    return false;
+  }
+
+  /** Releases the resources held by this factory. By default, this method does nothing. */
+  default void close() throws SQLException {}
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Combines the saves of players submitted within a short window into a single transaction.
+ *
+ * <p>A batch is written once the window since its first save elapses or once it reaches the
+ * maximum number of saves, whichever comes first. Batches are written one at a time in the order
+ * in which their saves were submitted. If a batch fails its saves are retried one by one, so a
+ * failing player does not prevent the others from being saved. Saves that cannot be written are
+ * reported through their futures.
+ */
+class GroupCommitter {
+  private static final Logger LOGGER = Logger.getLogger(GroupCommitter.class.getName());
+
+  /** Writes a list of saves in a single transaction. */
+  interface BatchWriter {
+    void write(List<PendingSave> saves) throws SQLException;
+
+    /**
+     * Called with a save that could not be written, before its future is completed.
+     *
+     * @return {@code true} if the save was kept to be written later, in which case its future is
+     *     completed normally.
+     */
+    default boolean recover(PendingSave save, Throwable throwable) {
+      return false;
+    }
+  }
+
+  /** A save of the serialized values of a player waiting to be written. */
+  static class PendingSave {
+    final UUID uuid;
+    // Serialized values keyed by the table in which they are stored
+    final ImmutableMap<String, byte[]> values;
+    final boolean release;
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    PendingSave(UUID uuid, ImmutableMap<String, byte[]> values, boolean release) {
+      this.uuid = checkNotNull(uuid);
+      this.values = checkNotNull(values);
+      this.release = release;
+    }
+  }
+
+  private final Object lock = new Object();
+  private List<PendingSave> batch = new ArrayList<>();
+  private boolean closed;
+
+  // Last save submitted of each player, until it is written
+  private final Map<UUID, CompletableFuture<Void>> pendingSaves = new ConcurrentHashMap<>();
+
+  private final LongAdder batchCount = new LongAdder();
+  private final LongAdder batchedSaveCount = new LongAdder();
+  private final LongAdder fallbackCount = new LongAdder();
+  private final AtomicInteger maxBatchSize = new AtomicInteger();
+
+  private final ScheduledExecutorService executorService;
+  private final BatchWriter batchWriter;
+  private final long windowMillis;
+  private final int maxSaves;
+
+  GroupCommitter(BatchWriter batchWriter, long windowMillis, int maxSaves) {
+    checkArgument(windowMillis > 0, "windowMillis must be positive");
+    checkArgument(maxSaves > 0, "maxSaves must be positive");
+    this.batchWriter = checkNotNull(batchWriter);
+    this.windowMillis = windowMillis;
+    this.maxSaves = maxSaves;
+    this.executorService = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("zplayersync-group-commit-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  /**
+   * Submits the given save to be written with the next batch.
+   *
+   * @return a future completed once the save has been written, or exceptionally with a
+   *     {@link RejectedExecutionException} if this committer has been closed.
+   */
+  CompletableFuture<Void> submit(UUID uuid, ImmutableMap<String, byte[]> values, boolean release) {
+    PendingSave save = new PendingSave(uuid, values, release);
+    synchronized (lock) {
+      if (closed) {
+        save.future.completeExceptionally(new RejectedExecutionException("Group committer has been closed"));
+        return save.future;
+      }
+      pendingSaves.put(uuid, save.future);
+      save.future.whenComplete((unused, throwable) -> pendingSaves.remove(uuid, save.future));
+      batch.add(save);
+      try {
+        if (batch.size() >= maxSaves) {
+          executorService.execute(this::flush);
+        } else if (batch.size() == 1) {
+          executorService.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+      } catch (RejectedExecutionException e) {
+        // Otherwise the save would wait forever for a flush that never comes
+        batch.remove(save);
+        save.future.completeExceptionally(e);
+      }
+    }
+    return save.future;
+  }
+
+  /** Waits for the saves of the given player that were submitted but not written yet. */
+  void awaitPendingSave(UUID uuid) {
+    CompletableFuture<Void> future = pendingSaves.get(uuid);
+    if (future != null) {
+      future.handle((unused, throwable) -> null).join();
+    }
+  }
+
+  /** Writes the saves submitted so far and stops the thread writing the batches. */
+  void close() {
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    executorService.execute(this::flush);
+    executorService.shutdown();
+    try {
+      executorService.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** @return the number of batches written so far. */
+  long getBatchCount() {
+    return batchCount.sum();
+  }
+
+  /** @return the number of saves written so far in batches. */
+  long getBatchedSaveCount() {
+    return batchedSaveCount.sum();
+  }
+
+  /** @return the number of saves that were retried one by one after their batch failed. */
+  long getFallbackCount() {
+    return fallbackCount.sum();
+  }
+
+  /** @return the number of saves of the largest batch written so far. */
+  int getMaxBatchSize() {
+    return maxBatchSize.get();
+  }
+
+  private void flush() {
+    List<PendingSave> saves;
+    synchronized (lock) {
+      if (batch.isEmpty()) {
+        return;
+      }
+      saves = batch;
+      batch = new ArrayList<>();
+    }
+
+    batchCount.increment();
+    batchedSaveCount.add(saves.size());
+    maxBatchSize.accumulateAndGet(saves.size(), Math::max);
+    try {
+      batchWriter.write(saves);
+      saves.forEach(save -> save.future.complete(null));
+      return;
+    } catch (Throwable throwable) {
+      if (saves.size() == 1) {
+        fail(saves.get(0), throwable);
+        return;
+      }
+      LOGGER.log(Level.WARNING, "Could not write a batch of " + saves.size()
+          + " saves, retrying them one by one", throwable);
+    }
+
+    for (PendingSave save : saves) {
+      fallbackCount.increment();
+      try {
+        batchWriter.write(ImmutableList.of(save));
+        save.future.complete(null);
+      } catch (Throwable throwable) {
+        fail(save, throwable);
+      }
+    }
+  }
+
+  private void fail(PendingSave save, Throwable throwable) {
+    if (batchWriter.recover(save, throwable)) {
+      save.future.complete(null);
+      return;
+    }
+    save.future.completeExceptionally(throwable);
+  }
+}
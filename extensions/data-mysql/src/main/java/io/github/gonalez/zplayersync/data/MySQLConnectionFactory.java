@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Properties;
 
 /** Implementation of connection factory for mysql connections. */
 public class MySQLConnectionFactory implements ConnectionFactory {
@@ -37,6 +38,11 @@ public class MySQLConnectionFactory implements ConnectionFactory {
 
   @Override
   public Connection create() throws SQLException {
-    return DriverManager.getConnection(url, username, password);
+    Properties properties = new Properties();
+    properties.setProperty("user", username);
+    properties.setProperty("password", password);
+    // Prepare statements on the server, they are reused by the pooled connections
+    properties.setProperty("useServerPrepStmts", "true");
+    return DriverManager.getConnection(url, properties);
   }
 }
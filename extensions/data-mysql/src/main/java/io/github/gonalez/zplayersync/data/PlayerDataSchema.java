@@ -0,0 +1,163 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Manages the tables in which the values of players are stored.
+ *
+ * <p>Every value table is created and migrated once when {@link #bootstrap(Connection, Iterable)}
+ * is called, the version of each table is recorded in the {@link #SCHEMA_TABLE} so that only
+ * the pending migrations are applied. Tables of values that are not known at bootstrap are
+ * created lazily the first time they are used, see {@link #ensureTable(Connection, String)}.
+ */
+public class PlayerDataSchema {
+  public static final String SCHEMA_TABLE = "zplayersync_schema";
+
+  /**
+   * Migrations of the value tables, the version of a table is the number of migrations applied
+   * to it. Each migration is a format string that receives the name of the table.
+   */
+  public static final ImmutableList<String> DEFAULT_VALUE_TABLE_MIGRATIONS = ImmutableList.of(
+      "CREATE TABLE IF NOT EXISTS %s (uuid VARCHAR(36) PRIMARY KEY NOT NULL, data BLOB NOT NULL)");
+
+  private static final String CREATE_SCHEMA_TABLE_SQL = "CREATE TABLE IF NOT EXISTS " + SCHEMA_TABLE
+      + " (table_name VARCHAR(64) PRIMARY KEY NOT NULL, version INT NOT NULL)";
+  private static final String SELECT_VERSIONS_SQL = "SELECT table_name, version FROM " + SCHEMA_TABLE;
+  private static final String SELECT_VERSION_SQL = "SELECT version FROM " + SCHEMA_TABLE + " WHERE table_name = ?";
+  private static final String UPSERT_VERSION_SQL = "INSERT INTO " + SCHEMA_TABLE
+      + " (table_name, version) VALUES (?, ?) ON DUPLICATE KEY UPDATE version = VALUES(version)";
+
+  private final Set<String> knownTables = ConcurrentHashMap.newKeySet();
+
+  private final ImmutableList<String> valueTableMigrations;
+
+  public PlayerDataSchema(ImmutableList<String> valueTableMigrations) {
+    this.valueTableMigrations = checkNotNull(valueTableMigrations);
+  }
+
+  public PlayerDataSchema() {
+    this(DEFAULT_VALUE_TABLE_MIGRATIONS);
+  }
+
+  /** @return the version that all the value tables are migrated to. */
+  public int latestVersion() {
+    return valueTableMigrations.size();
+  }
+
+  /** @return {@code true} if the given table is known to be up-to-date. */
+  public boolean isKnownTable(String table) {
+    return knownTables.contains(table);
+  }
+
+  /**
+   * Creates the schema table if necessary and applies the pending migrations of all the given
+   * tables. The changes are committed before returning.
+   */
+  public synchronized void bootstrap(Connection connection, Iterable<String> tables) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(CREATE_SCHEMA_TABLE_SQL);
+    }
+
+    Map<String, Integer> versions = new HashMap<>();
+    try (Statement statement = connection.createStatement();
+         ResultSet resultSet = statement.executeQuery(SELECT_VERSIONS_SQL)) {
+      while (resultSet.next()) {
+        versions.put(resultSet.getString(1), resultSet.getInt(2));
+      }
+    }
+
+    for (String table : tables) {
+      Integer version = versions.get(table);
+      migrate(connection, table, version == null ? 0 : version);
+    }
+    connection.commit();
+  }
+
+  /**
+   * Applies the pending migrations of a table that is not a value table, such as the tables used
+   * internally by the read writer. The changes are committed before returning.
+   */
+  public synchronized void migrateTable(
+      Connection connection, String table, ImmutableList<String> migrations) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(CREATE_SCHEMA_TABLE_SQL);
+    }
+    int version = readVersion(connection, table);
+    applyMigrations(connection, table, migrations, version);
+    connection.commit();
+  }
+
+  /**
+   * Makes sure the given table exists and is up-to-date, this is a no-op for tables that were
+   * already migrated, otherwise the pending migrations are applied and committed.
+   */
+  public void ensureTable(Connection connection, String table) throws SQLException {
+    if (isKnownTable(table)) {
+      return;
+    }
+    synchronized (this) {
+      if (isKnownTable(table)) {
+        return;
+      }
+      migrate(connection, table, readVersion(connection, table));
+      connection.commit();
+    }
+  }
+
+  private static int readVersion(Connection connection, String table) throws SQLException {
+    try (PreparedStatement preparedStatement = connection.prepareStatement(SELECT_VERSION_SQL)) {
+      preparedStatement.setString(1, table);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        return resultSet.next() ? resultSet.getInt(1) : 0;
+      }
+    }
+  }
+
+  private void migrate(Connection connection, String table, int version) throws SQLException {
+    applyMigrations(connection, table, valueTableMigrations, version);
+    knownTables.add(table);
+  }
+
+  private static void applyMigrations(Connection connection, String table,
+      ImmutableList<String> migrations, int version) throws SQLException {
+    if (version < migrations.size()) {
+      try (Statement statement = connection.createStatement()) {
+        for (int i = version; i < migrations.size(); i++) {
+          statement.execute(String.format(migrations.get(i), table));
+        }
+      }
+      try (PreparedStatement preparedStatement = connection.prepareStatement(UPSERT_VERSION_SQL)) {
+        preparedStatement.setString(1, table);
+        preparedStatement.setInt(2, migrations.size());
+        preparedStatement.executeUpdate();
+      }
+    }
+  }
+}
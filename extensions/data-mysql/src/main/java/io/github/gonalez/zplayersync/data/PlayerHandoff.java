@@ -0,0 +1,297 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands the data of players off between the servers sharing a database.
+ *
+ * <p>Each player has a row in the {@link #TABLE} with the version of its data, incremented on
+ * every save, and the server that owns the player. A server takes ownership of a player when
+ * loading its data, and releases it with the last save when the player leaves. A server loading
+ * a player owned by another server polls with exponential backoff until the owner releases it,
+ * so the data saved by the previous server is always loaded, waiting at most the configured
+ * time. Ownership is held through a lease that is renewed on every save and periodically while
+ * the player is online, see {@link #renew(Connection, Collection)}, so players owned by a server
+ * that stopped without releasing them can be taken once the lease expires.
+ */
+public class PlayerHandoff {
+  private static final Logger LOGGER = Logger.getLogger(PlayerHandoff.class.getName());
+
+  public static final String TABLE = "zplayersync_players";
+
+  public static final ImmutableList<String> MIGRATIONS = ImmutableList.of(
+      "CREATE TABLE IF NOT EXISTS %s (uuid VARCHAR(36) PRIMARY KEY NOT NULL, version BIGINT NOT NULL,"
+          + " owner VARCHAR(64) NULL, lease_until TIMESTAMP NOT NULL)");
+
+  /** Returned by {@link #replay} when the player was saved after the replayed save was journaled. */
+  public static final long OUTDATED = -1;
+
+  private static final long INITIAL_BACKOFF_MILLIS = 25;
+  private static final long MAX_BACKOFF_MILLIS = 400;
+
+  private static final String CLAIM_SQL = "UPDATE " + TABLE
+      + " SET owner = ?, lease_until = TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP) WHERE uuid = ?"
+      + " AND (owner IS NULL OR owner = ? OR lease_until < CURRENT_TIMESTAMP)";
+  private static final String FORCE_CLAIM_SQL = "UPDATE " + TABLE
+      + " SET owner = ?, lease_until = TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP) WHERE uuid = ?";
+  private static final String INSERT_SQL = "INSERT INTO " + TABLE
+      + " (uuid, version, owner, lease_until) VALUES (?, 0, ?, TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP))";
+  private static final String SELECT_VERSION_SQL = "SELECT version FROM " + TABLE + " WHERE uuid = ?";
+  private static final String SAVE_SQL = "UPDATE " + TABLE
+      + " SET version = version + 1, owner = ?, lease_until = TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP)"
+      + " WHERE uuid = ? AND (owner IS NULL OR owner = ? OR lease_until < CURRENT_TIMESTAMP)";
+  private static final String REPLAY_SQL = "UPDATE " + TABLE
+      + " SET version = version + 1, owner = ?, lease_until = TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP)"
+      + " WHERE uuid = ? AND (? < 0 OR version = ?)"
+      + " AND (owner IS NULL OR owner = ? OR owner = ? OR lease_until < CURRENT_TIMESTAMP)";
+  private static final String RENEW_SQL = "UPDATE " + TABLE
+      + " SET lease_until = TIMESTAMPADD(SECOND, ?, CURRENT_TIMESTAMP) WHERE uuid = ? AND owner = ?";
+  private static final String RELEASE_SQL = "UPDATE " + TABLE
+      + " SET owner = NULL WHERE uuid = ? AND owner = ?";
+
+  private final String serverId;
+  private final long leaseSeconds;
+  private final long maxWaitMillis;
+
+  /**
+   * @param serverId the unique identifier of this server.
+   * @param leaseSeconds how long the ownership of a player lasts without being renewed.
+   * @param maxWaitMillis the maximum time to wait for another server to release a player.
+   */
+  public PlayerHandoff(String serverId, long leaseSeconds, long maxWaitMillis) {
+    this.serverId = checkNotNull(serverId);
+    this.leaseSeconds = leaseSeconds;
+    this.maxWaitMillis = maxWaitMillis;
+  }
+
+  public PlayerHandoff() {
+    this(UUID.randomUUID().toString(), TimeUnit.MINUTES.toSeconds(10), TimeUnit.SECONDS.toMillis(5));
+  }
+
+  public String getServerId() {
+    return serverId;
+  }
+
+  public long getLeaseSeconds() {
+    return leaseSeconds;
+  }
+
+  /**
+   * Takes the ownership of the given player, waiting for the server that owns it to release it.
+   * If the player is not released in time its ownership is taken anyway. Must be called in the
+   * transaction that loads the data of the player, the claim is committed with it.
+   *
+   * @return the version of the data of the player.
+   */
+  public long acquire(Connection connection, UUID uuid) throws SQLException {
+    String uuidString = uuid.toString();
+    long deadline = System.currentTimeMillis() + maxWaitMillis;
+    long backoffMillis = INITIAL_BACKOFF_MILLIS;
+    while (true) {
+      if (claim(connection, uuidString, false)) {
+        return selectVersion(connection, uuidString);
+      }
+      if (insert(connection, uuidString)) {
+        return 0;
+      }
+
+      // Owned by another server that did not finish saving the player yet
+      long remainingMillis = deadline - System.currentTimeMillis();
+      if (remainingMillis <= 0) {
+        LOGGER.log(Level.WARNING, "Player {0} was not released by its previous server in time,"
+            + " loading the last saved data", uuid);
+        claim(connection, uuidString, true);
+        return selectVersion(connection, uuidString);
+      }
+      // Do not hold anything while waiting
+      connection.rollback();
+      try {
+        Thread.sleep(Math.min(backoffMillis, remainingMillis));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted while waiting for player " + uuid, e);
+      }
+      backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+    }
+  }
+
+  /**
+   * Records a save of the given player, incrementing the version of its data. If {@code release}
+   * is {@code true} the ownership of the player is released, otherwise its lease is renewed. Must
+   * be called in the transaction that saves the data of the player.
+   *
+   * @return the version of the data of the player after the save.
+   * @throws PlayerOwnershipException if the player is owned by another server, in which case the
+   *     transaction must not be committed since it would overwrite newer data.
+   */
+  public long save(Connection connection, UUID uuid, boolean release) throws SQLException {
+    String uuidString = uuid.toString();
+    try (PreparedStatement preparedStatement = connection.prepareStatement(SAVE_SQL)) {
+      if (release) {
+        preparedStatement.setNull(1, Types.VARCHAR);
+      } else {
+        preparedStatement.setString(1, serverId);
+      }
+      preparedStatement.setLong(2, leaseSeconds);
+      preparedStatement.setString(3, uuidString);
+      preparedStatement.setString(4, serverId);
+      if (preparedStatement.executeUpdate() > 0) {
+        return selectVersion(connection, uuidString);
+      }
+    }
+    // Players that were never loaded through the handoff do not have a row yet
+    if (!insert(connection, uuidString)) {
+      throw new PlayerOwnershipException(uuid);
+    }
+    return save(connection, uuid, release);
+  }
+
+  /**
+   * Records the replay of a save that was kept in a {@link SaveJournal}, like
+   * {@link #save(Connection, UUID, boolean)}. The save is only recorded if the data of the player
+   * still has the version the save is based on, and the player is owned by no server, by this
+   * server, by the server that journaled the save, e.g. this server before it restarted with
+   * another identifier, or by a server whose lease expired.
+   *
+   * @param journalOwner the server that owned the player when the save was journaled.
+   * @param baseVersion the version of the data the save is based on, or
+   *     {@link SaveJournal#UNKNOWN_VERSION} to only check the ownership of the player.
+   * @return the version of the data of the player after the save, or {@link #OUTDATED} if the
+   *     player was saved since, in which case the save must be discarded.
+   * @throws PlayerOwnershipException if the player is owned by another server whose lease did
+   *     not expire yet, the save can be replayed again once it expires.
+   */
+  public long replay(Connection connection, UUID uuid, @Nullable String journalOwner, long baseVersion,
+      boolean release) throws SQLException {
+    String uuidString = uuid.toString();
+    try (PreparedStatement preparedStatement = connection.prepareStatement(REPLAY_SQL)) {
+      if (release) {
+        preparedStatement.setNull(1, Types.VARCHAR);
+      } else {
+        preparedStatement.setString(1, serverId);
+      }
+      preparedStatement.setLong(2, leaseSeconds);
+      preparedStatement.setString(3, uuidString);
+      preparedStatement.setLong(4, baseVersion);
+      preparedStatement.setLong(5, baseVersion);
+      preparedStatement.setString(6, serverId);
+      preparedStatement.setString(7, journalOwner);
+      if (preparedStatement.executeUpdate() > 0) {
+        return selectVersion(connection, uuidString);
+      }
+    }
+    if (insert(connection, uuidString)) {
+      return replay(connection, uuid, journalOwner, SaveJournal.UNKNOWN_VERSION, release);
+    }
+    if (baseVersion != SaveJournal.UNKNOWN_VERSION && selectVersion(connection, uuidString) != baseVersion) {
+      return OUTDATED;
+    }
+    throw new PlayerOwnershipException(uuid);
+  }
+
+  /**
+   * Renews the lease of the given players, which are owned by this server. Players that were
+   * taken by another server in the meantime are left as they are.
+   *
+   * @return the number of players whose lease was renewed.
+   */
+  public int renew(Connection connection, Collection<UUID> uuids) throws SQLException {
+    int renewed = 0;
+    try (PreparedStatement preparedStatement = connection.prepareStatement(RENEW_SQL)) {
+      for (UUID uuid : uuids) {
+        preparedStatement.setLong(1, leaseSeconds);
+        preparedStatement.setString(2, uuid.toString());
+        preparedStatement.setString(3, serverId);
+        preparedStatement.addBatch();
+      }
+      for (int updateCount : preparedStatement.executeBatch()) {
+        if (updateCount > 0 || updateCount == Statement.SUCCESS_NO_INFO) {
+          renewed++;
+        }
+      }
+    }
+    return renewed;
+  }
+
+  /**
+   * Releases the ownership of the given player without recording a save, so the version of its
+   * data is left as it is. Does nothing if the player is owned by another server.
+   */
+  public void release(Connection connection, UUID uuid) throws SQLException {
+    try (PreparedStatement preparedStatement = connection.prepareStatement(RELEASE_SQL)) {
+      preparedStatement.setString(1, uuid.toString());
+      preparedStatement.setString(2, serverId);
+      preparedStatement.executeUpdate();
+    }
+  }
+
+  private boolean claim(Connection connection, String uuid, boolean force) throws SQLException {
+    try (PreparedStatement preparedStatement = connection.prepareStatement(force ? FORCE_CLAIM_SQL : CLAIM_SQL)) {
+      preparedStatement.setString(1, serverId);
+      preparedStatement.setLong(2, leaseSeconds);
+      preparedStatement.setString(3, uuid);
+      if (!force) {
+        preparedStatement.setString(4, serverId);
+      }
+      return preparedStatement.executeUpdate() > 0;
+    }
+  }
+
+  private boolean insert(Connection connection, String uuid) throws SQLException {
+    try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_SQL)) {
+      preparedStatement.setString(1, uuid);
+      preparedStatement.setString(2, serverId);
+      preparedStatement.setLong(3, leaseSeconds);
+      return preparedStatement.executeUpdate() > 0;
+    } catch (SQLIntegrityConstraintViolationException e) {
+      // The player already has a row
+      return false;
+    } catch (SQLException e) {
+      // Duplicate key, for drivers that do not use the specific exception
+      if ("23000".equals(e.getSQLState()) || "23505".equals(e.getSQLState())) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  private static long selectVersion(Connection connection, String uuid) throws SQLException {
+    try (PreparedStatement preparedStatement = connection.prepareStatement(SELECT_VERSION_SQL)) {
+      preparedStatement.setString(1, uuid);
+      try (ResultSet resultSet = preparedStatement.executeQuery()) {
+        return resultSet.next() ? resultSet.getLong(1) : 0;
+      }
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import java.sql.SQLException;
+import java.util.UUID;
+
+/** Thrown when saving a player that is owned by another server, see {@link PlayerHandoff}. */
+public class PlayerOwnershipException extends SQLException {
+  private final UUID uuid;
+
+  public PlayerOwnershipException(UUID uuid) {
+    super("Player " + uuid + " is owned by another server");
+    this.uuid = uuid;
+  }
+
+  public UUID getUuid() {
+    return uuid;
+  }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection factory that keeps a pool of connections created by another factory.
+ *
+ * <p>Connections returned by {@link #create()} go back to the pool when closed. At most
+ * {@code maximumSize} connections are in use at the same time, callers wait up to the borrow
+ * timeout for one to be free. Connections that have been idle for longer than the validation
+ * interval are validated before being handed out, and dead ones are replaced by new connections.
+ *
+ * <p>Each pooled connection also keeps a cache of the statements prepared through
+ * {@link Connection#prepareStatement(String)}, keyed by their sql. Closing a cached statement only
+ * clears its parameters so it can be reused by the next user of the connection, the cache is
+ * discarded together with the physical connection when it is replaced.
+ *
+ * <p>Connections are only rolled back when returned if their user did work in a transaction that
+ * it did not commit or roll back itself. Once closed, the pool can not be opened again and fails
+ * every {@link #create()}, a new pool must be created instead.
+ */
+public class PooledConnectionFactory implements ConnectionFactory {
+  private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+  private final BlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+
+  private final ConnectionFactory connectionFactory;
+  private final Semaphore availableConnections;
+  private final int statementCacheSize;
+  private final long borrowTimeoutMillis;
+  private final long validationIntervalMillis;
+
+  private volatile boolean closed;
+
+  public PooledConnectionFactory(
+      ConnectionFactory connectionFactory,
+      int maximumSize,
+      int statementCacheSize,
+      long borrowTimeoutMillis,
+      long validationIntervalMillis) {
+    checkArgument(maximumSize > 0, "maximumSize must be positive");
+    checkArgument(statementCacheSize >= 0, "statementCacheSize must not be negative");
+    this.connectionFactory = checkNotNull(connectionFactory);
+    this.availableConnections = new Semaphore(maximumSize, true);
+    this.statementCacheSize = statementCacheSize;
+    this.borrowTimeoutMillis = borrowTimeoutMillis;
+    this.validationIntervalMillis = validationIntervalMillis;
+  }
+
+  @Override
+  public Connection create() throws SQLException {
+    if (closed) {
+      throw new SQLException("Connection pool is closed");
+    }
+    try {
+      if (!availableConnections.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        throw new SQLException("Timed out waiting for an available connection");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for an available connection", e);
+    }
+
+    try {
+      return borrow().proxy;
+    } catch (SQLException | RuntimeException e) {
+      availableConnections.release();
+      throw e;
+    }
+  }
+
+  private PooledConnection borrow() throws SQLException {
+    PooledConnection pooledConnection;
+    while ((pooledConnection = idleConnections.pollFirst()) != null) {
+      if (isUsable(pooledConnection)) {
+        pooledConnection.borrowed = true;
+        return pooledConnection;
+      }
+      closeQuietly(pooledConnection.connection);
+    }
+    pooledConnection = new PooledConnection(connectionFactory.create());
+    pooledConnection.borrowed = true;
+    return pooledConnection;
+  }
+
+  private boolean isUsable(PooledConnection pooledConnection) throws SQLException {
+    if (pooledConnection.connection.isClosed()) {
+      return false;
+    }
+    long idleMillis = System.currentTimeMillis() - pooledConnection.lastUsedMillis;
+    return idleMillis < validationIntervalMillis
+        || pooledConnection.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+  }
+
+  private void release(PooledConnection pooledConnection) {
+    try {
+      if (pooledConnection.broken || closed || pooledConnection.connection.isClosed()) {
+        closeQuietly(pooledConnection.connection);
+        return;
+      }
+      if (pooledConnection.dirty) {
+        // Discard anything that was not committed by the previous user
+        pooledConnection.connection.rollback();
+        pooledConnection.dirty = false;
+      }
+      pooledConnection.lastUsedMillis = System.currentTimeMillis();
+      idleConnections.offerFirst(pooledConnection);
+    } catch (SQLException e) {
+      closeQuietly(pooledConnection.connection);
+    } finally {
+      availableConnections.release();
+    }
+  }
+
+  @Override
+  public boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public void close() throws SQLException {
+    closed = true;
+    PooledConnection pooledConnection;
+    while ((pooledConnection = idleConnections.pollFirst()) != null) {
+      closeQuietly(pooledConnection.connection);
+    }
+    connectionFactory.close();
+  }
+
+  private static void closeQuietly(AutoCloseable closeable) {
+    try {
+      closeable.close();
+    } catch (Exception ignored) {}
+  }
+
+  private static Object invokeDelegate(PooledConnection pooledConnection,
+      Object delegate, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(delegate, args);
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SQLException) {
+        String sqlState = ((SQLException) cause).getSQLState();
+        // Class 08 are connection exceptions, the connection must not be reused
+        if (sqlState != null && sqlState.startsWith("08")) {
+          pooledConnection.broken = true;
+        }
+      }
+      throw cause;
+    }
+  }
+
+  /** A physical connection of the pool, handed out through a proxy that returns it when closed. */
+  private class PooledConnection implements InvocationHandler {
+    private final Connection connection;
+    private final Connection proxy;
+    private final Map<String, CachedStatement> statementCache;
+
+    private volatile long lastUsedMillis = System.currentTimeMillis();
+    private volatile boolean borrowed;
+    private volatile boolean broken;
+
+    // Whether the connection is not in auto-commit mode, and whether work was done in
+    // its current transaction, tracked so it is only rolled back when released if needed
+    private volatile boolean manualCommit;
+    private volatile boolean dirty;
+
+    PooledConnection(Connection connection) throws SQLException {
+      this.connection = connection;
+      this.manualCommit = !connection.getAutoCommit();
+      this.proxy = (Connection) Proxy.newProxyInstance(
+          Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+      this.statementCache = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+          if (size() > statementCacheSize) {
+            closeQuietly(eldest.getValue().statement);
+            return true;
+          }
+          return false;
+        }
+      };
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          if (borrowed) {
+            borrowed = false;
+            release(this);
+          }
+          return null;
+        case "isClosed":
+          return !borrowed || connection.isClosed();
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "PooledConnection[" + connection + "]";
+        default:
+          if (!borrowed) {
+            throw new SQLException("Connection has been returned to the pool");
+          }
+          Object result;
+          if (statementCacheSize > 0
+              && method.getName().equals("prepareStatement") && args.length == 1) {
+            result = prepareCachedStatement((String) args[0]);
+          } else {
+            result = invokeDelegate(this, connection, method, args);
+          }
+          trackTransaction(method, args);
+          return result;
+      }
+    }
+
+    private void trackTransaction(Method method, Object[] args) {
+      switch (method.getName()) {
+        case "setAutoCommit":
+          // Enabling auto-commit commits the current transaction
+          manualCommit = !(Boolean) args[0];
+          dirty = false;
+          break;
+        case "commit":
+          dirty = false;
+          break;
+        case "rollback":
+          if (args == null || args.length == 0) {
+            dirty = false;
+          }
+          break;
+        case "setTransactionIsolation":
+        case "getAutoCommit":
+        case "getTransactionIsolation":
+          break;
+        default:
+          markDirty();
+      }
+    }
+
+    void markDirty() {
+      if (manualCommit) {
+        dirty = true;
+      }
+    }
+
+    private PreparedStatement prepareCachedStatement(String sql) throws SQLException {
+      CachedStatement cachedStatement = statementCache.get(sql);
+      if (cachedStatement == null || cachedStatement.statement.isClosed()) {
+        try {
+          cachedStatement = new CachedStatement(this, connection.prepareStatement(sql));
+        } catch (SQLException e) {
+          String sqlState = e.getSQLState();
+          if (sqlState != null && sqlState.startsWith("08")) {
+            broken = true;
+          }
+          throw e;
+        }
+        statementCache.put(sql, cachedStatement);
+      }
+      return cachedStatement.proxy;
+    }
+  }
+
+  /** A prepared statement of a pooled connection, which is kept open when closed by its user. */
+  private static class CachedStatement implements InvocationHandler {
+    private final PooledConnection pooledConnection;
+    private final PreparedStatement statement;
+    private final PreparedStatement proxy;
+
+    CachedStatement(PooledConnection pooledConnection, PreparedStatement statement) {
+      this.pooledConnection = pooledConnection;
+      this.statement = statement;
+      this.proxy = (PreparedStatement) Proxy.newProxyInstance(
+          PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class}, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          // Keep the statement prepared for the next use
+          statement.clearParameters();
+          statement.clearBatch();
+          return null;
+        case "getConnection":
+          return pooledConnection.proxy;
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "CachedStatement[" + statement + "]";
+        default:
+          pooledConnection.markDirty();
+          return invokeDelegate(pooledConnection, statement, method, args);
+      }
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the values of the players that left this server for a short time, so a player rejoining
+ * the same server is loaded without reading its data from the database.
+ *
+ * <p>Every entry is tagged with the version of the data written by the last save of the player.
+ * An entry is only used if the data of the player in the database still has that version, so the
+ * player is read from the database if another server saved it since it left. Entries are used at
+ * most once and expire after a fixed time.
+ */
+class RecentQuitCache {
+  /** The values of a player as they were written by its last save. */
+  static class CachedPlayer {
+    final long version;
+    // Serialized values before compression, keyed by the identifier of their value
+    final ImmutableMap<String, byte[]> values;
+    final ImmutableMap<String, Long> fingerprints;
+
+    CachedPlayer(long version, ImmutableMap<String, byte[]> values, ImmutableMap<String, Long> fingerprints) {
+      this.version = version;
+      this.values = checkNotNull(values);
+      this.fingerprints = checkNotNull(fingerprints);
+    }
+  }
+
+  private final Cache<UUID, CachedPlayer> cache;
+
+  // Version of the data written by the last save of each player, until the player leaves
+  private final Map<UUID, Long> writtenVersions = new ConcurrentHashMap<>();
+
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+
+  RecentQuitCache(int maxPlayers, long expireMillis) {
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maxPlayers)
+        .expireAfterWrite(expireMillis, TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  /** Records that a save of the given player was committed with the given version. */
+  void recordWrite(UUID uuid, long version) {
+    writtenVersions.put(uuid, version);
+  }
+
+  /**
+   * Forgets the version of the last save of the given player, when a save of the player is not
+   * written to the database and the recorded version does not match its values anymore.
+   */
+  void forgetWrite(UUID uuid) {
+    writtenVersions.remove(uuid);
+  }
+
+  /**
+   * Keeps the given values of a player that left, written by its last save. Nothing is kept if
+   * the last save of the player was not written to the database.
+   */
+  void put(UUID uuid, ImmutableMap<String, byte[]> values, ImmutableMap<String, Long> fingerprints) {
+    Long version = writtenVersions.remove(uuid);
+    if (version != null) {
+      cache.put(uuid, new CachedPlayer(version, values, fingerprints));
+    }
+  }
+
+  /**
+   * Removes the entry of the given player.
+   *
+   * @return the entry, or {@code null} if the player has no entry or its entry is not of the
+   *     given version of the data of the player in the database.
+   */
+  @Nullable
+  CachedPlayer take(UUID uuid, long version) {
+    CachedPlayer cachedPlayer = cache.getIfPresent(uuid);
+    if (cachedPlayer == null) {
+      missCount.increment();
+      return null;
+    }
+    cache.invalidate(uuid);
+    if (cachedPlayer.version != version) {
+      // Saved by another server since it left
+      missCount.increment();
+      return null;
+    }
+    hitCount.increment();
+    return cachedPlayer;
+  }
+
+  /** @return the number of players loaded from the cache so far. */
+  long getHitCount() {
+    return hitCount.sum();
+  }
+
+  /** @return the number of players that had to be read from the database so far. */
+  long getMissCount() {
+    return missCount.sum();
+  }
+}
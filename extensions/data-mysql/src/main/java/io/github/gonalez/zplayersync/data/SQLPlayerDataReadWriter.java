@@ -15,53 +15,187 @@
  */
 package io.github.gonalez.zplayersync.data;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import com.google.common.collect.ImmutableList;
-import io.github.gonalez.zplayersync.serializer.ObjectSerializer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.github.gonalez.zplayersync.metrics.SyncMetrics;
+import io.github.gonalez.zplayersync.metrics.SyncStage;
+import io.github.gonalez.zplayersync.metrics.SyncTracer;
+import io.github.gonalez.zplayersync.serializer.BinaryObjectSerializer;
+import io.github.gonalez.zplayersync.serializer.PayloadCompression;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /** Base class for PlayerDataReadWriter which reads and writes via sql. */
 public abstract class SQLPlayerDataReadWriter implements PlayerDataReadWriter {
-  private static final String SELECT_DATA_SQL = "SELECT data FROM %s WHERE uuid = ? FOR UPDATE";
-  private static final String UPDATE_DATA_SQL = "%s INTO %s (uuid, data) VALUES (?, ?)";
+  private static final Logger LOGGER = Logger.getLogger(SQLPlayerDataReadWriter.class.getName());
+
+  private static final String SELECT_INDEXED_DATA_SQL = "SELECT %d, data FROM %s WHERE uuid = ?";
+  // Time the flush threads are given to stop once the flush timed out
+  private static final long FLUSH_GRACE_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+  private static final PayloadCompression NO_COMPRESSION =
+      new PayloadCompression(PayloadCompression.Codec.NONE, 0);
+
+  private static final String UPSERT_DATA_SQL =
+      "INSERT INTO %s (uuid, data) VALUES (?, ?) ON DUPLICATE KEY UPDATE data = VALUES(data)";
 
   private final ConnectionFactory connectionProvider;
+  private final PlayerDataSchema schema;
+  private final PlayerHandoff handoff;
+
+  // The sql of the statements is built once and reused, so the same strings
+  // are passed to the connections and their prepared statement caches
+  private final Map<String, String> upsertDataSqls = new ConcurrentHashMap<>();
+
+  // The values bound to their serializers and tables, replaced as a whole when rebuilt
+  private final SyncPlan.Holder<TablePlan> syncPlan = new SyncPlan.Holder<>(this::buildTablePlan);
+
+  // Fingerprints of the serialized values of online players as they are stored, used
+  // to skip writing the values that did not change since they were loaded or written
+  private final Map<UUID, ImmutableMap<String, Long>> storedFingerprints = new ConcurrentHashMap<>();
+  // Versions of the data of the players owned by this server as they are stored, recorded with the
+  // saves kept in the journal so they are never written over newer data
+  private final Map<UUID, Long> storedVersions = new ConcurrentHashMap<>();
+  private final LongAdder[] saveCounts = new LongAdder[SaveResult.values().length];
+  private final SyncMetrics metrics = new SyncMetrics();
+
+  // Combines the saves of several players into one transaction, if enabled
+  @Nullable
+  private volatile GroupCommitter groupCommitter;
+
+  // Replays the saves of the journal once the database is reachable again, if enabled
+  @Nullable
+  private ScheduledExecutorService journalReplayer;
+
+  // Players owned by this server through the handoff, whose leases are renewed periodically
+  private final Set<UUID> ownedPlayers = ConcurrentHashMap.newKeySet();
+  @Nullable
+  private ScheduledExecutorService leaseRenewer;
+
+  // Values of the players that left recently, if enabled
+  @Nullable
+  private volatile RecentQuitCache recentQuitCache;
 
   private volatile boolean opened;
 
-  protected Connection connection;
+  public SQLPlayerDataReadWriter(
+      ConnectionFactory connectionProvider,
+      PlayerDataSchema schema,
+      PlayerHandoff handoff) {
+    this.connectionProvider = connectionProvider;
+    this.schema = schema;
+    this.handoff = handoff;
+    for (int i = 0; i < saveCounts.length; i++) {
+      saveCounts[i] = new LongAdder();
+    }
+  }
 
   public SQLPlayerDataReadWriter(ConnectionFactory connectionProvider) {
-    this.connectionProvider = connectionProvider;
+    this(connectionProvider, new PlayerDataSchema(), new PlayerHandoff());
   }
 
-  public synchronized boolean isOpened() {
+  public boolean isOpened() {
     return opened;
   }
 
   @Override
-  public synchronized void open() {
+  public void open() {
     if (isOpened())
       return;
 
-    try {
-      connection = connectionProvider.create();
-      connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+    synchronized (this) {
+      if (isOpened())
+        return;
+      if (connectionProvider.isClosed()) {
+        throw new IllegalStateException(
+            "The connection factory was closed, a new one is needed to open the read writer again");
+      }
 
-      connection.setAutoCommit(false);
-    } catch (SQLException sqlException) {
-      throw new RuntimeException(sqlException);
-    }
+      // Create and migrate the tables of all the values known so far, tables
+      // of values registered later are created the first time they are used.
+      try (Connection connection = openConnection()) {
+        ImmutableList.Builder<String> tables = ImmutableList.builder();
+        for (PlayerValueKey<?> key : providePlayerValues()) {
+          tables.add(key.identifier());
+        }
+        schema.bootstrap(connection, tables.build());
+        schema.migrateTable(connection, PlayerHandoff.TABLE, PlayerHandoff.MIGRATIONS);
+        if (groupCommitWindowMillis() > 0) {
+          groupCommitter = new GroupCommitter(new GroupCommitter.BatchWriter() {
+            @Override
+            public void write(List<GroupCommitter.PendingSave> saves) throws SQLException {
+              saveBatch(saves);
+            }
 
-    opened = true;
+            @Override
+            public boolean recover(GroupCommitter.PendingSave save, Throwable throwable) {
+              return journalFailedSave(save, throwable);
+            }
+          }, groupCommitWindowMillis(), groupCommitMaxSaves());
+        }
+        if (recentQuitCacheSize() > 0) {
+          recentQuitCache = new RecentQuitCache(recentQuitCacheSize(), recentQuitCacheExpireMillis());
+        }
+        opened = true;
+      } catch (SQLException sqlException) {
+        throw new RuntimeException(sqlException);
+      }
+
+      SaveJournal journal = saveJournal();
+      if (journal != null) {
+        // Saves left in the journal when the server stopped or crashed are written first
+        replayJournal(journal);
+        journalReplayer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("zplayersync-journal-replayer-%d")
+                .setDaemon(true)
+                .build());
+        journalReplayer.scheduleWithFixedDelay(() -> replayJournal(journal),
+            journalReplayIntervalMillis(), journalReplayIntervalMillis(), TimeUnit.MILLISECONDS);
+      }
+
+      long leaseRenewalIntervalMillis = leaseRenewalIntervalMillis();
+      if (leaseRenewalIntervalMillis > 0) {
+        leaseRenewer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("zplayersync-lease-renewer-%d")
+                .setDaemon(true)
+                .build());
+        leaseRenewer.scheduleWithFixedDelay(this::renewLeases,
+            leaseRenewalIntervalMillis, leaseRenewalIntervalMillis, TimeUnit.MILLISECONDS);
+      }
+    }
   }
 
   @Override
@@ -69,8 +203,21 @@ public abstract class SQLPlayerDataReadWriter implements PlayerDataReadWriter {
     if (!isOpened())
       return;
 
+    GroupCommitter groupCommitter = this.groupCommitter;
+    if (groupCommitter != null) {
+      // Write the saves that are still waiting for their batch
+      groupCommitter.close();
+    }
+    if (journalReplayer != null) {
+      journalReplayer.shutdownNow();
+      journalReplayer = null;
+    }
+    if (leaseRenewer != null) {
+      leaseRenewer.shutdownNow();
+      leaseRenewer = null;
+    }
     try {
-      connection.close();
+      connectionProvider.close();
     } catch (SQLException sqlException) {
       throw new RuntimeException(sqlException);
     }
@@ -78,136 +225,959 @@ public abstract class SQLPlayerDataReadWriter implements PlayerDataReadWriter {
     opened = false;
   }
 
-  /** Finds the appropriate object serializer of the given class or {@code null} if not found. */
+  /**
+   * Obtains a connection from the connection factory ready to run a transaction, the connection
+   * is only held for the length of the transaction of one player and must be closed afterwards.
+   */
+  protected Connection openConnection() throws SQLException {
+    Connection connection = connectionProvider.create();
+    try {
+      connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+      connection.setAutoCommit(false);
+    } catch (SQLException e) {
+      connection.close();
+      throw e;
+    }
+    return connection;
+  }
+
+  /**
+   * Finds the appropriate object serializer of the given class or {@code null} if not found. Only
+   * called when the sync plan is built, see {@link #rebuildSyncPlan()}.
+   */
+  @Nullable
+  protected abstract <T> BinaryObjectSerializer<T> findSerializerOfType(Class<T> type);
+
+  /** List of the keys of all available {@link PlayerDataApi} to be used, indexed by their id. */
+  protected abstract ImmutableList<PlayerValueKey<?>> providePlayerValues();
+
+  /**
+   * Finds the compression applied to the serialized values of the given identifier before they
+   * are stored. By default, values are stored without compression.
+   */
+  protected PayloadCompression findPayloadCompression(String identifier) {
+    return NO_COMPRESSION;
+  }
+
+  /**
+   * Whether to write all the values of players on every save, even the values that did not
+   * change since they were loaded. By default, this is {@code false}.
+   */
+  protected boolean forceFullWrites() {
+    return false;
+  }
+
+  /**
+   * The time to wait for more saves before writing the saves submitted so far in a single
+   * transaction, or {@code 0} to write every save in its own transaction. By default, this is
+   * {@code 0}.
+   */
+  protected long groupCommitWindowMillis() {
+    return 0;
+  }
+
+  /**
+   * The maximum number of saves written in a single transaction when group commit is enabled,
+   * see {@link #groupCommitWindowMillis()}. By default, this is {@code 32}.
+   */
+  protected int groupCommitMaxSaves() {
+    return 32;
+  }
+
+  /**
+   * The journal in which the saves that could not be written to the database are kept until
+   * they can be written, or {@code null} to not keep them. By default, this is {@code null}.
+   */
   @Nullable
-  protected abstract <T> ObjectSerializer<T> findSerializerOfType(Class<T> type);
+  protected SaveJournal saveJournal() {
+    return null;
+  }
+
+  /**
+   * The time between two attempts to write the saves of the journal to the database, see
+   * {@link #saveJournal()}. By default, this is 10 seconds.
+   */
+  protected long journalReplayIntervalMillis() {
+    return TimeUnit.SECONDS.toMillis(10);
+  }
 
-  /** List of all available {@link PlayerDataApi} to be used. */
-  protected abstract ImmutableList<PlayerDataApi<?>> providePlayerValues();
+  /**
+   * The time between two renewals of the leases of the players owned by this server, see
+   * {@link PlayerHandoff}, or {@code 0} to only renew them when the players are saved. By default,
+   * this is a third of the lease, so players staying online longer than the lease without being
+   * saved are not taken by another server.
+   */
+  protected long leaseRenewalIntervalMillis() {
+    return TimeUnit.SECONDS.toMillis(handoff.getLeaseSeconds()) / 3;
+  }
+
+  /**
+   * The maximum number of players that left this server whose values are kept in memory, so they
+   * are loaded without reading the database if they rejoin this server before any other server
+   * saves them, or {@code 0} to not keep them. By default, this is {@code 0}.
+   */
+  protected int recentQuitCacheSize() {
+    return 0;
+  }
+
+  /**
+   * The time for which the values of a player that left are kept, see
+   * {@link #recentQuitCacheSize()}. By default, this is 30 seconds.
+   */
+  protected long recentQuitCacheExpireMillis() {
+    return TimeUnit.SECONDS.toMillis(30);
+  }
+
+  /** @return the number of transactions in which saves were grouped so far. */
+  public long getGroupCommitCount() {
+    GroupCommitter groupCommitter = this.groupCommitter;
+    return groupCommitter == null ? 0 : groupCommitter.getBatchCount();
+  }
+
+  /** @return the average number of saves grouped in a transaction so far. */
+  public double getAverageGroupCommitSize() {
+    GroupCommitter groupCommitter = this.groupCommitter;
+    return groupCommitter == null || groupCommitter.getBatchCount() == 0 ? 0
+        : (double) groupCommitter.getBatchedSaveCount() / groupCommitter.getBatchCount();
+  }
+
+  /** @return the largest number of saves grouped in a transaction so far. */
+  public int getMaxGroupCommitSize() {
+    GroupCommitter groupCommitter = this.groupCommitter;
+    return groupCommitter == null ? 0 : groupCommitter.getMaxBatchSize();
+  }
+
+  /** @return the number of grouped saves retried on their own after their group failed. */
+  public long getGroupCommitFallbackCount() {
+    GroupCommitter groupCommitter = this.groupCommitter;
+    return groupCommitter == null ? 0 : groupCommitter.getFallbackCount();
+  }
+
+  /** @return the number of players that rejoined and were loaded from memory so far. */
+  public long getRecentQuitHitCount() {
+    RecentQuitCache recentQuitCache = this.recentQuitCache;
+    return recentQuitCache == null ? 0 : recentQuitCache.getHitCount();
+  }
+
+  /** @return the number of players that were read from the database while the cache was enabled. */
+  public long getRecentQuitMissCount() {
+    RecentQuitCache recentQuitCache = this.recentQuitCache;
+    return recentQuitCache == null ? 0 : recentQuitCache.getMissCount();
+  }
+
+  @Override
+  public SyncMetrics getMetrics() {
+    return metrics;
+  }
+
+  /** @return the number of saves done so far with the given result. */
+  public long getSaveCount(SaveResult saveResult) {
+    return saveCounts[saveResult.ordinal()].sum();
+  }
 
   /** @return the online-player matching the given uuid. */
   public Player getPlayer(UUID uuid) {
     return Bukkit.getPlayer(uuid);
   }
 
-  @SuppressWarnings({"unchecked", "rawtypes"})
   @Override
-  public synchronized ImmutableList<PlayerDataApi<?>> read(UUID uuid) {
+  public PlayerSnapshot read(UUID uuid) {
     open();
 
-    ImmutableList.Builder<PlayerDataApi<?>> dataApiBuilder = ImmutableList.builder();
-    try {
-      for (PlayerDataApi dataApi : providePlayerValues()) {
-        // Create tables
-        createPlayersValueTable(dataApi);
-
-        try (PreparedStatement preparedStatement = connection.prepareStatement(
-            String.format(SELECT_DATA_SQL, dataApi.identifier()))) {
-          preparedStatement.setString(1, uuid.toString());
-          try (ResultSet resultSet = preparedStatement.executeQuery()) {
-            if (resultSet.next()) {
-              ObjectSerializer<?> objectSerializer = findSerializerOfType(dataApi.type());
-              if (objectSerializer != null) {
-                Object data = objectSerializer.deserialize(resultSet.getString(1));
-                dataApiBuilder.add(new PlayerDataApi<Object>() {
-                  @Override
-                  public Class<Object> type() {
-                    return (Class<Object>) dataApi.type();
-                  }
-
-                  @Override
-                  public String identifier() {
-                    return dataApi.identifier();
-                  }
-
-                  @Nullable
-                  @Override
-                  public Object read(@Nullable Player input) {
-                    return data;
-                  }
-
-                  @Override
-                  public void set(Player input, Object value) {
-                    set(input);
-                  }
-
-                  @Override
-                  public void set(Player input) {
-                    dataApi.set(input, data);
-                  }
-
-                  @Override
-                  public boolean isStandalone() {
-                    return true;
-                  }
-                });
-              }
-            }
-          }
+    TablePlan tablePlan = syncPlan.get();
+    SyncPlan plan = tablePlan.plan;
+    ImmutableList<SyncPlan.Entry<?>> entries = plan.entries();
+    PlayerSnapshot.Builder snapshot = PlayerSnapshot.builder(plan.keys());
+    if (entries.isEmpty()) {
+      return snapshot.build();
+    }
+
+    // A save of the player waiting for its group must be written before loading it
+    GroupCommitter groupCommitter = this.groupCommitter;
+    if (groupCommitter != null) {
+      groupCommitter.awaitPendingSave(uuid);
+    }
+    // So are the saves of the player kept in the journal
+    SaveJournal journal = saveJournal();
+    if (journal != null) {
+      SaveJournal.Entry entry = journal.get(uuid);
+      if (entry != null) {
+        try {
+          replay(journal, entry);
+        } catch (SQLException e) {
+          // The stored values are older than the journaled ones, loading them would lose the save
+          metrics.recordError(SyncMetrics.ALL_VALUES, e);
+          throw new IllegalStateException("Could not write the journaled save of player " + uuid
+              + " to the database, its stored values are outdated", e);
+        }
+      }
+    }
+
+    // The values are only deserialized once the connection is released
+    byte[][] serializedValues = new byte[entries.size()][];
+    long startNanos = System.nanoTime();
+    SyncTracer.DatabaseSpan databaseSpan = metrics.getTracer().startDatabase(uuid, false);
+    try (Connection connection = openConnection()) {
+      ensureTables(connection, tablePlan);
+
+      // Wait for the previous server of the player to save it
+      long version = handoff.acquire(connection, uuid);
+
+      // A player that left this server is loaded from memory if no other server saved it since
+      RecentQuitCache recentQuitCache = this.recentQuitCache;
+      RecentQuitCache.CachedPlayer cachedPlayer =
+          recentQuitCache == null ? null : recentQuitCache.take(uuid, version);
+      if (cachedPlayer != null) {
+        PlayerSnapshot cachedSnapshot = loadCached(uuid, plan, cachedPlayer);
+        if (cachedSnapshot != null) {
           connection.commit();
+          ownedPlayers.add(uuid);
+          long durationNanos = System.nanoTime() - startNanos;
+          metrics.recordLatency(SyncMetrics.ALL_VALUES, SyncStage.DATABASE, durationNanos);
+          databaseSpan.finish(0, 0);
+          storedFingerprints.put(uuid, cachedPlayer.fingerprints);
+          storedVersions.put(uuid, version);
+          return cachedSnapshot;
+        }
+      }
+
+      // All the values are fetched at once, each row is tagged with the index of its entry
+      try (PreparedStatement preparedStatement = connection.prepareStatement(tablePlan.selectAllDataSql)) {
+        String uuidString = uuid.toString();
+        for (int i = 0; i < entries.size(); i++) {
+          preparedStatement.setString(i + 1, uuidString);
+        }
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+          while (resultSet.next()) {
+            serializedValues[resultSet.getInt(1)] = readData(resultSet, 2);
+          }
         }
       }
+      connection.commit();
+      ownedPlayers.add(uuid);
+      storedVersions.put(uuid, version);
     } catch (SQLException e) {
+      metrics.recordError(SyncMetrics.ALL_VALUES, e);
       throw new RuntimeException(e);
     }
-    return dataApiBuilder.build();
+    long durationNanos = System.nanoTime() - startNanos;
+    metrics.recordLatency(SyncMetrics.ALL_VALUES, SyncStage.DATABASE, durationNanos);
+    int valueCount = 0;
+    long bytes = 0;
+    for (byte[] serializedValue : serializedValues) {
+      if (serializedValue != null) {
+        valueCount++;
+        bytes += serializedValue.length;
+      }
+    }
+    databaseSpan.finish(valueCount, bytes);
+
+    ImmutableMap.Builder<String, Long> fingerprints = ImmutableMap.builder();
+    for (int i = 0; i < entries.size(); i++) {
+      if (serializedValues[i] != null) {
+        byte[] serializedValue = PayloadCompression.decompress(serializedValues[i]);
+        SyncPlan.Entry<?> entry = entries.get(i);
+        fingerprints.put(entry.key().identifier(), SyncPlan.fingerprint(serializedValue));
+        entry.deserialize(uuid, snapshot, serializedValue, metrics);
+      }
+    }
+    storedFingerprints.put(uuid, fingerprints.build());
+    return snapshot.build();
+  }
+
+  /**
+   * Deserializes the values of the given cached player.
+   *
+   * @return the values, or {@code null} if the cached player does not have all the values, e.g.
+   *     because some of them were registered after it left.
+   */
+  @Nullable
+  private PlayerSnapshot loadCached(UUID uuid, SyncPlan plan, RecentQuitCache.CachedPlayer cachedPlayer) {
+    PlayerSnapshot.Builder snapshot = PlayerSnapshot.builder(plan.keys());
+    for (SyncPlan.Entry<?> entry : plan.entries()) {
+      byte[] serializedValue = cachedPlayer.values.get(entry.key().identifier());
+      if (serializedValue == null) {
+        return null;
+      }
+      entry.deserialize(uuid, snapshot, serializedValue, metrics);
+    }
+    return snapshot.build();
+  }
+
+  /** Reads the bytes of the given blob column of the current row. */
+  private static byte[] readData(ResultSet resultSet, int columnIndex) throws SQLException {
+    try (InputStream inputStream = resultSet.getBinaryStream(columnIndex)) {
+      return ByteStreams.toByteArray(inputStream);
+    } catch (IOException e) {
+      throw new SQLException(e);
+    }
+  }
+
+  /** Creates or migrates the tables of the values of the given plan, once per plan. */
+  private void ensureTables(Connection connection, TablePlan tablePlan) throws SQLException {
+    if (tablePlan.tablesEnsured) {
+      return;
+    }
+    for (SyncPlan.Entry<?> entry : tablePlan.plan.entries()) {
+      schema.ensureTable(connection, entry.key().identifier());
+    }
+    tablePlan.tablesEnsured = true;
+  }
+
+  /**
+   * Returns a single query selecting the data of all the given entries, as
+   * {@code SELECT 0, data FROM a WHERE uuid = ? UNION ALL SELECT 1, data FROM b WHERE uuid = ?}.
+   */
+  private static String buildSelectAllDataSql(List<SyncPlan.Entry<?>> entries) {
+    StringBuilder sql = new StringBuilder();
+    for (int i = 0; i < entries.size(); i++) {
+      if (i > 0) {
+        sql.append(" UNION ALL ");
+      }
+      sql.append(String.format(SELECT_INDEXED_DATA_SQL, i, entries.get(i).key().identifier()));
+    }
+    return sql.toString();
   }
 
-  @SuppressWarnings({"unchecked", "rawtypes"})
+  /**
+   * Builds a new plan from {@link #providePlayerValues()}, {@link #findSerializerOfType(Class)}
+   * and {@link #findPayloadCompression(String)}, replacing the current one. Reads and writes that
+   * already started keep using the plan they started with.
+   */
   @Override
-  public synchronized void write(UUID uuid) {
-    open();
+  public void rebuildSyncPlan() {
+    syncPlan.rebuild();
+  }
+
+  private TablePlan buildTablePlan() {
+    SyncPlan plan = SyncPlan.bind(providePlayerValues(), new SyncPlan.Binder() {
+      @Nullable
+      @Override
+      public <T> BinaryObjectSerializer<T> findSerializerOfType(Class<T> type) {
+        return SQLPlayerDataReadWriter.this.findSerializerOfType(type);
+      }
+
+      @Override
+      public PayloadCompression findPayloadCompression(String identifier) {
+        return SQLPlayerDataReadWriter.this.findPayloadCompression(identifier);
+      }
+    });
+    return new TablePlan(plan, buildSelectAllDataSql(plan.entries()));
+  }
+
+  @Override
+  public void write(UUID uuid) {
+    captureWrite(uuid).run();
+  }
+
+  /** The returned task waits for the values to be written, even with group commit. */
+  @Override
+  public Runnable captureWrite(UUID uuid) {
+    Supplier<CompletableFuture<Void>> write = captureWriteAsync(uuid);
+    return () -> write.get().join();
+  }
+
+  /** The returned task waits for the values to be written, even with group commit. */
+  @Override
+  public Runnable captureQuitWrite(UUID uuid) {
+    Supplier<CompletableFuture<Void>> write = captureQuitWriteAsync(uuid);
+    return () -> write.get().join();
+  }
+
+  @Override
+  public Supplier<CompletableFuture<Void>> captureWriteAsync(UUID uuid) {
+    return captureWrite(uuid, false);
+  }
+
+  @Override
+  public Supplier<CompletableFuture<Void>> captureQuitWriteAsync(UUID uuid) {
+    return captureWrite(uuid, true);
+  }
+
+  /**
+   * Captures the values of the given player, the returned task serializes them and returns the
+   * future of their save, which is completed later by the group commit thread if enabled.
+   */
+  private Supplier<CompletableFuture<Void>> captureWrite(UUID uuid, boolean quit) {
+    SyncPlan plan = syncPlan.get().plan;
+    PlayerSnapshot snapshot = captureSnapshot(plan, uuid);
+    if (snapshot == null) {
+      if (quit) {
+        forgetPlayer(uuid);
+      }
+      return () -> CompletableFuture.completedFuture(null);
+    }
+    return () -> {
+      CompletableFuture<Void> future;
+      try {
+        SerializedSave serializedSave = serializeSnapshot(plan, uuid, snapshot, quit);
+        // Even if no value changed the ownership of the player must be renewed or released
+        future = saveSerialized(uuid, serializedSave.values, quit).thenRun(() -> onSaved(serializedSave));
+      } catch (RuntimeException e) {
+        // Thrown by a serializer, or by the write itself without group commit
+        if (quit) {
+          forgetPlayer(uuid);
+        }
+        throw e;
+      }
+      if (quit) {
+        future.whenComplete((ignored, throwable) -> {
+          if (throwable != null) {
+            forgetPlayer(uuid);
+          }
+        });
+      }
+      return future;
+    };
+  }
 
+  /**
+   * Copies the values of the player with the given uuid, only copying the values is done on the
+   * calling thread, the snapshots are serialized and compressed later by the thread writing them.
+   *
+   * @return the snapshot of the values or {@code null} if the player is not online.
+   */
+  @Nullable
+  private PlayerSnapshot captureSnapshot(SyncPlan plan, UUID uuid) {
     // Check the player for the given uuid. If no player is connected we can
     // skip writing since we need the player to get the appropriate values.
     Player player = getPlayer(uuid);
     if (player == null) {
+      return null;
+    }
+
+    return plan.capture(player);
+  }
+
+  /** Serializes the values of the given snapshot, which was captured with the given plan. */
+  private SerializedSave serializeSnapshot(SyncPlan plan, UUID uuid, PlayerSnapshot snapshot, boolean quit) {
+    ImmutableMap<String, Long> previousFingerprints = forceFullWrites() ? null : storedFingerprints.get(uuid);
+    ImmutableMap.Builder<String, Long> fingerprints = ImmutableMap.builder();
+    ImmutableMap.Builder<String, byte[]> serializedValues = ImmutableMap.builder();
+    // All the values of players leaving are kept as they are, to be cached once written
+    ImmutableMap.Builder<String, byte[]> quitValues =
+        quit && recentQuitCache != null ? ImmutableMap.builder() : null;
+    int valueCount = 0;
+    for (SyncPlan.Entry<?> entry : plan.entries()) {
+      // Serialize the value from the player into bytes
+      byte[] serializedValue = entry.serialize(uuid, snapshot, metrics);
+      if (serializedValue != null) {
+        valueCount++;
+        String table = entry.key().identifier();
+        long fingerprint = SyncPlan.fingerprint(serializedValue);
+        fingerprints.put(table, fingerprint);
+        if (quitValues != null) {
+          quitValues.put(table, serializedValue);
+        }
+        if (previousFingerprints != null
+            && Long.valueOf(fingerprint).equals(previousFingerprints.get(table))) {
+          // Not changed since it was loaded or last written
+          continue;
+        }
+        serializedValues.put(table, entry.compression().compress(serializedValue));
+      }
+    }
+    return new SerializedSave(uuid, serializedValues.build(), quit, fingerprints.build(), valueCount,
+        quitValues == null ? null : quitValues.build());
+  }
+
+  private void onSaved(SerializedSave serializedSave) {
+    UUID uuid = serializedSave.uuid;
+    if (serializedSave.quit) {
+      storedFingerprints.remove(uuid);
+      storedVersions.remove(uuid);
+      RecentQuitCache recentQuitCache = this.recentQuitCache;
+      if (recentQuitCache != null && serializedSave.quitValues != null) {
+        recentQuitCache.put(uuid, serializedSave.quitValues, serializedSave.fingerprints);
+      }
+    } else {
+      storedFingerprints.put(uuid, serializedSave.fingerprints);
+    }
+    SaveResult saveResult = serializedSave.saveResult();
+    saveCounts[saveResult.ordinal()].increment();
+    LOGGER.log(Level.FINE, "Saved {0} of {1} values of player {2} ({3})",
+        new Object[]{serializedSave.values.size(), serializedSave.valueCount, uuid, saveResult});
+  }
+
+  /**
+   * Writes the values of the given players split in batches of {@link #groupCommitMaxSaves()}
+   * players, each batch is written in its own transaction by one of the flush threads.
+   */
+  @Override
+  public ImmutableSet<UUID> flush(Collection<UUID> playerUUIDs, int parallelism, long timeout, TimeUnit unit) {
+    checkArgument(parallelism > 0, "parallelism must be positive");
+    open();
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+    SyncPlan plan = syncPlan.get().plan;
+    Map<UUID, PlayerSnapshot> snapshots = new LinkedHashMap<>();
+    for (UUID uuid : playerUUIDs) {
+      PlayerSnapshot snapshot = captureSnapshot(plan, uuid);
+      if (snapshot != null) {
+        snapshots.put(uuid, snapshot);
+      }
+    }
+
+    Set<UUID> savedPlayers = ConcurrentHashMap.newKeySet();
+    ExecutorService executorService = Executors.newFixedThreadPool(parallelism,
+        new ThreadFactoryBuilder()
+            .setNameFormat("zplayersync-flush-%d")
+            .setDaemon(true)
+            .build());
+    for (List<UUID> batch : Iterables.partition(snapshots.keySet(), groupCommitMaxSaves())) {
+      executorService.execute(() -> flushBatch(plan, batch, snapshots, savedPlayers));
+    }
+    executorService.shutdown();
+    try {
+      if (!executorService.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+        executorService.shutdownNow();
+        // The connections are closed once this returns, give the batches being written some
+        // time to notice the interrupt instead of closing the connections under them
+        if (!executorService.awaitTermination(FLUSH_GRACE_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) {
+          LOGGER.log(Level.WARNING, "Flush threads are still writing after the timeout, closing anyway");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      executorService.shutdownNow();
+    }
+
+    ImmutableSet.Builder<UUID> unsavedPlayers = ImmutableSet.builder();
+    for (UUID uuid : playerUUIDs) {
+      if (!savedPlayers.contains(uuid)) {
+        unsavedPlayers.add(uuid);
+      }
+    }
+    return unsavedPlayers.build();
+  }
+
+  private void flushBatch(
+      SyncPlan plan,
+      List<UUID> batch,
+      Map<UUID, PlayerSnapshot> snapshots,
+      Set<UUID> savedPlayers) {
+    GroupCommitter groupCommitter = this.groupCommitter;
+    List<SerializedSave> serializedSaves = new ArrayList<>(batch.size());
+    for (UUID uuid : batch) {
+      // Previous saves of the player must not overwrite this one
+      if (groupCommitter != null) {
+        groupCommitter.awaitPendingSave(uuid);
+      }
+      try {
+        serializedSaves.add(serializeSnapshot(plan, uuid, snapshots.get(uuid), true));
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.SEVERE, "Could not serialize data of player " + uuid, e);
+      }
+    }
+
+    List<GroupCommitter.PendingSave> saves = new ArrayList<>(serializedSaves.size());
+    for (SerializedSave serializedSave : serializedSaves) {
+      saves.add(new GroupCommitter.PendingSave(serializedSave.uuid, serializedSave.values, true));
+    }
+    try {
+      saveBatch(saves);
+      for (SerializedSave serializedSave : serializedSaves) {
+        onSaved(serializedSave);
+        savedPlayers.add(serializedSave.uuid);
+      }
+      return;
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING, "Could not write a batch of " + saves.size()
+          + " players, retrying them one by one", e);
+    }
+
+    for (int i = 0; i < saves.size(); i++) {
+      SerializedSave serializedSave = serializedSaves.get(i);
+      try {
+        saveBatch(ImmutableList.of(saves.get(i)));
+      } catch (SQLException e) {
+        if (!journalFailedSave(saves.get(i), e)) {
+          LOGGER.log(Level.SEVERE, "Could not write data of player " + serializedSave.uuid, e);
+          continue;
+        }
+      }
+      onSaved(serializedSave);
+      savedPlayers.add(serializedSave.uuid);
+    }
+  }
+
+  /**
+   * Releases the ownership of the given player without recording a save, the version of its data
+   * is left as it is since no values were written.
+   */
+  @Override
+  public void release(UUID uuid) {
+    open();
+
+    // A save of the player waiting for its group would claim the player again
+    GroupCommitter groupCommitter = this.groupCommitter;
+    if (groupCommitter != null) {
+      groupCommitter.awaitPendingSave(uuid);
+    }
+    forgetPlayer(uuid);
+    ownedPlayers.remove(uuid);
+    try (Connection connection = openConnection()) {
+      handoff.release(connection, uuid);
+      connection.commit();
+    } catch (SQLException e) {
+      // The player is taken by other servers once its lease expires
+      LOGGER.log(Level.WARNING, "Could not release player " + uuid, e);
+    }
+  }
+
+  /** Forgets the last written values of the given player, which is not online anymore. */
+  private void forgetPlayer(UUID uuid) {
+    storedFingerprints.remove(uuid);
+    storedVersions.remove(uuid);
+    forgetWrite(uuid);
+  }
+
+  /** Renews the leases of the players owned by this server. */
+  private void renewLeases() {
+    if (ownedPlayers.isEmpty()) {
       return;
     }
+    ImmutableList<UUID> players = ImmutableList.copyOf(ownedPlayers);
+    try (Connection connection = openConnection()) {
+      int renewed = handoff.renew(connection, players);
+      connection.commit();
+      LOGGER.log(Level.FINE, "Renewed the leases of {0} of {1} players", new Object[]{renewed, players.size()});
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING, "Could not renew the leases of " + players.size() + " players", e);
+    }
+  }
 
+  /**
+   * Writes the serialized values of the player with the given uuid, either right away or with the
+   * next group of saves if group commit is enabled.
+   *
+   * @return a future completed once the values have been written.
+   */
+  private CompletableFuture<Void> saveSerialized(
+      UUID uuid, ImmutableMap<String, byte[]> values, boolean release) {
+    GroupCommitter groupCommitter = this.groupCommitter;
+    if (groupCommitter != null) {
+      return groupCommitter.submit(uuid, values, release);
+    }
+    writeSerialized(uuid, values, release);
+    return CompletableFuture.completedFuture(null);
+  }
+
+  /**
+   * Writes the already serialized values of the player with the given uuid, keyed by the table in
+   * which they are stored, releasing the ownership of the player if {@code release} is
+   * {@code true}. Saves that cannot be written are kept in the journal, if enabled.
+   */
+  protected void writeSerialized(UUID uuid, ImmutableMap<String, byte[]> values, boolean release) {
+    open();
+
+    GroupCommitter.PendingSave save = new GroupCommitter.PendingSave(uuid, values, release);
     try {
-      connection.setAutoCommit(false);
-      for (PlayerDataApi<?> dataApi : providePlayerValues()) {
-        // Create tables
-        createPlayersValueTable(dataApi);
-
-        ObjectSerializer serializer = findSerializerOfType(dataApi.type());
-        if (serializer != null) {
-          // Serialize the value from the player into a string
-          String serializedValue = serializer.serialize(dataApi.read(player));
-          if (serializedValue == null) {
-            // Skip this value ( no serializer )
-            continue;
-          }
-          try (PreparedStatement preparedStatement = connection.prepareStatement(
-              String.format(SELECT_DATA_SQL, dataApi.identifier()))) {
-            preparedStatement.setString(1, uuid.toString());
-            try (ResultSet resultSet = preparedStatement.executeQuery()) {
-              try (PreparedStatement insertStatement = connection.prepareStatement(
-                  String.format(UPDATE_DATA_SQL,
-                      resultSet.next() ? "REPLACE" : "INSERT",
-                      dataApi.identifier()))) {
-                insertStatement.setString(1, uuid.toString());
-                insertStatement.setString(2, serializedValue);
-                insertStatement.executeUpdate();
-              }
-            }
-          }
+      saveBatch(ImmutableList.of(save));
+    } catch (SQLException e) {
+      if (!journalFailedSave(save, e)) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Writes the given saves in a single transaction, except the saves of players that have older
+   * saves in the journal, which are appended to the journal to be written after them.
+   */
+  private void saveBatch(List<GroupCommitter.PendingSave> saves) throws SQLException {
+    SaveJournal journal = saveJournal();
+    if (journal == null || journal.isEmpty()) {
+      writeBatch(saves);
+      return;
+    }
+
+    List<GroupCommitter.PendingSave> databaseSaves = new ArrayList<>(saves.size());
+    for (GroupCommitter.PendingSave save : saves) {
+      if (journal.hasPending(save.uuid)) {
+        forgetWrite(save.uuid);
+        try {
+          appendToJournal(journal, save);
+        } catch (IOException e) {
+          throw new SQLException("Could not append the save of player " + save.uuid + " to the journal", e);
         }
+      } else {
+        databaseSaves.add(save);
+      }
+    }
+    if (!databaseSaves.isEmpty()) {
+      writeBatch(databaseSaves);
+    }
+  }
+
+  /**
+   * Appends the given save that could not be written to the journal, if enabled.
+   *
+   * @return {@code true} if the save was appended to the journal.
+   */
+  private boolean journalFailedSave(GroupCommitter.PendingSave save, Throwable throwable) {
+    SaveJournal journal = saveJournal();
+    forgetWrite(save.uuid);
+    if (journal == null || throwable instanceof PlayerOwnershipException) {
+      return false;
+    }
+    try {
+      appendToJournal(journal, save);
+    } catch (IOException e) {
+      LOGGER.log(Level.SEVERE, "Could not append the save of player " + save.uuid + " to the journal", e);
+      return false;
+    }
+    LOGGER.log(Level.WARNING, "Could not write data of player " + save.uuid
+        + ", it will be written once the database is reachable", throwable);
+    return true;
+  }
+
+  /** Appends the given save to the journal, based on the data of the player this server stored last. */
+  private void appendToJournal(SaveJournal journal, GroupCommitter.PendingSave save) throws IOException {
+    journal.append(save.uuid, save.values, save.release, handoff.getServerId(),
+        storedVersions.getOrDefault(save.uuid, SaveJournal.UNKNOWN_VERSION));
+  }
+
+  /** The values of the given player in the database do not match its last save anymore. */
+  private void forgetWrite(UUID uuid) {
+    RecentQuitCache recentQuitCache = this.recentQuitCache;
+    if (recentQuitCache != null) {
+      recentQuitCache.forgetWrite(uuid);
+    }
+  }
+
+  /**
+   * Writes the saves kept in the journal, stopping at the first one that cannot be written. The
+   * saves of players owned by other servers are kept until their leases expire.
+   */
+  private void replayJournal(SaveJournal journal) {
+    ImmutableList<SaveJournal.Entry> entries = journal.entries();
+    if (entries.isEmpty()) {
+      return;
+    }
+    int replayed = 0;
+    for (SaveJournal.Entry entry : entries) {
+      try {
+        replay(journal, entry);
+        replayed++;
+      } catch (PlayerOwnershipException e) {
+        LOGGER.log(Level.FINE, "Could not replay the journaled save of player " + entry.getUuid()
+            + ", it is owned by another server", e);
+      } catch (SQLException e) {
+        LOGGER.log(Level.FINE, "Could not replay the save journal, retrying later", e);
+        break;
+      }
+    }
+    if (replayed == 0) {
+      // Still unreachable, this is retried every few seconds
+      return;
+    }
+    LOGGER.log(Level.INFO, "Replayed the saves of {0} of {1} players from the journal",
+        new Object[]{replayed, entries.size()});
+    try {
+      journal.compact();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Could not compact the save journal", e);
+    }
+  }
+
+  /**
+   * Writes the given save of the journal and removes it, unless the player was saved by another
+   * server since the save was journaled, in which case the save is discarded.
+   *
+   * @throws PlayerOwnershipException if the player is owned by another server, the save is kept
+   *     until its lease expires.
+   */
+  private void replay(SaveJournal journal, SaveJournal.Entry entry) throws SQLException {
+    UUID uuid = entry.getUuid();
+    // Players that are not online on this server anymore are left to the next server loading them
+    boolean release = entry.isRelease() || !ownedPlayers.contains(uuid);
+    long version;
+    try (Connection connection = openConnection()) {
+      version = handoff.replay(connection, uuid, entry.getOwner(), entry.getBaseVersion(), release);
+      if (version != PlayerHandoff.OUTDATED) {
+        upsertValues(connection, ImmutableList.of(new GroupCommitter.PendingSave(uuid, entry.getValues(), release)));
       }
       connection.commit();
     } catch (SQLException e) {
-      throw new RuntimeException(e);
+      metrics.recordError(SyncMetrics.ALL_VALUES, e);
+      throw e;
+    }
+
+    if (version == PlayerHandoff.OUTDATED) {
+      LOGGER.log(Level.WARNING, "Discarding the journaled save of player {0}, it was saved by another server since",
+          uuid);
+    } else {
+      if (release) {
+        ownedPlayers.remove(uuid);
+        storedVersions.remove(uuid);
+      } else {
+        storedVersions.replace(uuid, version);
+      }
+      // The values of the journal are not the complete values of the player
+      forgetWrite(uuid);
+    }
+    try {
+      journal.remove(entry);
+    } catch (IOException e) {
+      throw new SQLException("Could not remove the save of player " + uuid + " from the journal", e);
+    }
+  }
+
+  /** Writes the given saves in a single transaction, with one batched statement per value table. */
+  private void writeBatch(List<GroupCommitter.PendingSave> saves) throws SQLException {
+    long startNanos = System.nanoTime();
+    // Every save of the group spans the whole transaction
+    SyncTracer tracer = metrics.getTracer();
+    SyncTracer.DatabaseSpan[] databaseSpans = null;
+    if (tracer != SyncTracer.NOOP) {
+      databaseSpans = new SyncTracer.DatabaseSpan[saves.size()];
+      for (int i = 0; i < saves.size(); i++) {
+        databaseSpans[i] = tracer.startDatabase(saves.get(i).uuid, true);
+      }
+    }
+    try (Connection connection = openConnection()) {
+      upsertValues(connection, saves);
+
+      long[] versions = new long[saves.size()];
+      for (int i = 0; i < saves.size(); i++) {
+        GroupCommitter.PendingSave save = saves.get(i);
+        versions[i] = handoff.save(connection, save.uuid, save.release);
+      }
+      connection.commit();
+
+      for (int i = 0; i < saves.size(); i++) {
+        GroupCommitter.PendingSave save = saves.get(i);
+        if (save.release) {
+          ownedPlayers.remove(save.uuid);
+          storedVersions.remove(save.uuid);
+        } else {
+          ownedPlayers.add(save.uuid);
+          storedVersions.put(save.uuid, versions[i]);
+        }
+      }
+      RecentQuitCache recentQuitCache = this.recentQuitCache;
+      if (recentQuitCache != null) {
+        for (int i = 0; i < saves.size(); i++) {
+          recentQuitCache.recordWrite(saves.get(i).uuid, versions[i]);
+        }
+      }
+    } catch (SQLException e) {
+      metrics.recordError(SyncMetrics.ALL_VALUES, e);
+      throw e;
+    }
+    long durationNanos = System.nanoTime() - startNanos;
+    metrics.recordLatency(SyncMetrics.ALL_VALUES, SyncStage.DATABASE, durationNanos);
+    if (databaseSpans != null) {
+      for (int i = 0; i < saves.size(); i++) {
+        GroupCommitter.PendingSave save = saves.get(i);
+        long bytes = 0;
+        for (byte[] value : save.values.values()) {
+          bytes += value.length;
+        }
+        databaseSpans[i].finish(save.values.size(), bytes);
+      }
+    }
+  }
+
+  /** Writes the values of the given saves, with one batched statement per value table. */
+  private void upsertValues(Connection connection, List<GroupCommitter.PendingSave> saves) throws SQLException {
+    for (GroupCommitter.PendingSave save : saves) {
+      for (String table : save.values.keySet()) {
+        schema.ensureTable(connection, table);
+      }
+    }
+
+    Map<String, PreparedStatement> upsertStatements = new LinkedHashMap<>();
+    try {
+      for (GroupCommitter.PendingSave save : saves) {
+        String uuidString = save.uuid.toString();
+        for (Map.Entry<String, byte[]> entry : save.values.entrySet()) {
+          String table = entry.getKey();
+          PreparedStatement upsertStatement = upsertStatements.get(table);
+          if (upsertStatement == null) {
+            upsertStatement = connection.prepareStatement(cachedUpsertDataSql(table));
+            upsertStatements.put(table, upsertStatement);
+          }
+          upsertStatement.setString(1, uuidString);
+          upsertStatement.setBytes(2, entry.getValue());
+          upsertStatement.addBatch();
+        }
+      }
+      for (PreparedStatement upsertStatement : upsertStatements.values()) {
+        upsertStatement.executeBatch();
+      }
+    } finally {
+      for (PreparedStatement upsertStatement : upsertStatements.values()) {
+        upsertStatement.close();
+      }
     }
   }
 
-  private void createPlayersValueTable(PlayerDataApi<?> value) throws SQLException {
-    String createTableSql =
-        "CREATE TABLE IF NOT EXISTS " + value.identifier() + " "
-            + "(uuid VARCHAR(36) PRIMARY KEY NOT NULL, "
-            + "data BLOB NOT NULL)";
-    try (Statement statement = connection.createStatement()) {
-      statement.execute(createTableSql);
+  /**
+   * Returns the statement that inserts the data of a player into the given table, or replaces it
+   * if the player already has a row. The parameters of the statement are the uuid and the data.
+   * By default, this uses the MySQL {@code INSERT ... ON DUPLICATE KEY UPDATE} syntax.
+   */
+  protected String upsertDataSql(String table) {
+    return String.format(UPSERT_DATA_SQL, table);
+  }
+
+  private String cachedUpsertDataSql(String table) {
+    String sql = upsertDataSqls.get(table);
+    if (sql == null) {
+      sql = upsertDataSql(table);
+      upsertDataSqls.put(table, sql);
+    }
+    return sql;
+  }
+
+  /**
+   * A {@link SyncPlan} along with the statements of its tables, replaced as a whole when the plan
+   * is rebuilt. The values of the plan are stored in the tables of their identifiers.
+   */
+  private static class TablePlan {
+    private final SyncPlan plan;
+    // Selects the data of all the entries, each row tagged with the index of its entry
+    private final String selectAllDataSql;
+    private volatile boolean tablesEnsured;
+
+    TablePlan(SyncPlan plan, String selectAllDataSql) {
+      this.plan = plan;
+      this.selectAllDataSql = selectAllDataSql;
+    }
+  }
+
+  /** The serialized values of a player waiting to be written. */
+  private static class SerializedSave {
+    private final UUID uuid;
+    private final ImmutableMap<String, byte[]> values;
+    private final boolean quit;
+    private final ImmutableMap<String, Long> fingerprints;
+    // The number of values of the player, including the ones that did not change
+    private final int valueCount;
+    // All the serialized values before compression, only kept for players leaving
+    @Nullable
+    private final ImmutableMap<String, byte[]> quitValues;
+
+    SerializedSave(
+        UUID uuid,
+        ImmutableMap<String, byte[]> values,
+        boolean quit,
+        ImmutableMap<String, Long> fingerprints,
+        int valueCount,
+        @Nullable ImmutableMap<String, byte[]> quitValues) {
+      this.uuid = uuid;
+      this.values = values;
+      this.quit = quit;
+      this.fingerprints = fingerprints;
+      this.valueCount = valueCount;
+      this.quitValues = quitValues;
+    }
+
+    SaveResult saveResult() {
+      return values.isEmpty() ? SaveResult.SKIPPED
+          : values.size() == valueCount ? SaveResult.FULL : SaveResult.PARTIAL;
     }
   }
 }
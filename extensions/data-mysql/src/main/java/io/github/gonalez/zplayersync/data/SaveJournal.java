@@ -0,0 +1,422 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Local append-only journal of the saves of players that could not be written to the database.
+ *
+ * <p>The journal file starts with a header holding the version of its format. Each save is
+ * appended to it as a record framed by its length and CRC32, and the file is forced to disk before
+ * returning, so saves survive a crash of the server. Records that are incomplete or corrupted,
+ * e.g. because the server crashed while appending them, are discarded when the journal is opened.
+ *
+ * <p>Every save records the server that owned the player and the version of the data of the
+ * player it is based on, see {@link PlayerHandoff}, so it is only written over the data it was
+ * based on, even if this server restarts with another identifier.
+ *
+ * <p>The saves of a player are merged as they are appended, the values of a newer save replace
+ * the ones of the older saves, so only the latest value of each table is kept. Once the save of
+ * a player has been written to the database it is removed with {@link #remove(Entry)}, which
+ * appends a record marking the player as removed. The journal file is rewritten with only the
+ * saves that were not written yet by {@link #compact()}, e.g. after replaying the journal, or
+ * when the records of removed saves take more than {@link #GARBAGE_THRESHOLD_BYTES}.
+ */
+public class SaveJournal implements Closeable {
+  private static final Logger LOGGER = Logger.getLogger(SaveJournal.class.getName());
+
+  private static final String FILE_NAME = "saves.journal";
+  // "ZPSJ" followed by the version of the format of the records
+  private static final int MAGIC = 0x5A50534A;
+  private static final int FORMAT_VERSION = 1;
+  private static final int FILE_HEADER_SIZE = 8;
+  private static final int HEADER_SIZE = 8;
+
+  private static final byte SAVE = 0, REMOVED = 1;
+
+  /** Version of the data of a player that is not known, see {@link Entry#getBaseVersion()}. */
+  public static final long UNKNOWN_VERSION = -1;
+
+  /** Size of the records of removed saves after which the journal file is compacted on removal. */
+  public static final long GARBAGE_THRESHOLD_BYTES = 4 * 1024 * 1024;
+
+  private final Map<UUID, Entry> entries = new LinkedHashMap<>();
+  // Size of the records in the journal file of each player with pending saves
+  private final Map<UUID, Long> recordBytes = new HashMap<>();
+  // Size of the records in the journal file of saves that were removed
+  private long garbageBytes;
+
+  private final Path file;
+  private FileChannel channel;
+
+  /** Opens the journal in the given directory, loading the saves that were not written yet. */
+  public SaveJournal(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    this.file = directory.resolve(FILE_NAME);
+    this.channel = FileChannel.open(file,
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    load();
+  }
+
+  /** The merged saves of a player. */
+  public static class Entry {
+    private final UUID uuid;
+    private final ImmutableMap<String, byte[]> values;
+    private final boolean release;
+    @Nullable
+    private final String owner;
+    private final long baseVersion;
+
+    Entry(UUID uuid, ImmutableMap<String, byte[]> values, boolean release, @Nullable String owner,
+        long baseVersion) {
+      this.uuid = checkNotNull(uuid);
+      this.values = checkNotNull(values);
+      this.release = release;
+      this.owner = owner;
+      this.baseVersion = baseVersion;
+    }
+
+    public UUID getUuid() {
+      return uuid;
+    }
+
+    /** @return the serialized values of the player, keyed by the table in which they are stored. */
+    public ImmutableMap<String, byte[]> getValues() {
+      return values;
+    }
+
+    /** @return {@code true} if the player must be released when the save is written. */
+    public boolean isRelease() {
+      return release;
+    }
+
+    /** @return the server that owned the player when the first of the saves was appended. */
+    @Nullable
+    public String getOwner() {
+      return owner;
+    }
+
+    /**
+     * @return the version of the data of the player in the database the saves are based on, or
+     *     {@link #UNKNOWN_VERSION}.
+     */
+    public long getBaseVersion() {
+      return baseVersion;
+    }
+
+    private Entry merge(Entry newer) {
+      Map<String, byte[]> mergedValues = new LinkedHashMap<>(values);
+      mergedValues.putAll(newer.values);
+      // None of the saves were written, so all of them are based on the data of the first one
+      return new Entry(uuid, ImmutableMap.copyOf(mergedValues), newer.release, owner, baseVersion);
+    }
+  }
+
+  /**
+   * Appends the given save of a player, the save is on disk once this method returns.
+   *
+   * @param owner the server that owns the player.
+   * @param baseVersion the version of the data of the player in the database the save is based
+   *     on, or {@link #UNKNOWN_VERSION}.
+   */
+  public synchronized void append(UUID uuid, ImmutableMap<String, byte[]> values, boolean release,
+      @Nullable String owner, long baseVersion) throws IOException {
+    Entry entry = new Entry(uuid, values, release, owner, baseVersion);
+    int size = write(encode(entry));
+
+    Entry previous = entries.get(uuid);
+    entries.put(uuid, previous == null ? entry : previous.merge(entry));
+    recordBytes.merge(uuid, (long) size, Long::sum);
+  }
+
+  /** @return {@code true} if the given player has saves that were not written yet. */
+  public synchronized boolean hasPending(UUID uuid) {
+    return entries.containsKey(uuid);
+  }
+
+  public synchronized boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  /** @return the merged saves of the given player that were not written yet, if any. */
+  @Nullable
+  public synchronized Entry get(UUID uuid) {
+    return entries.get(uuid);
+  }
+
+  /** @return the merged saves of all the players that were not written yet. */
+  public synchronized ImmutableList<Entry> entries() {
+    return ImmutableList.copyOf(entries.values());
+  }
+
+  /**
+   * Removes the given entry once it was written to the database, the removal is on disk once this
+   * method returns. Nothing is removed if saves of the player were appended after the entry was
+   * obtained, since the entry does not contain them.
+   */
+  public synchronized void remove(Entry entry) throws IOException {
+    if (entries.get(entry.uuid) != entry) {
+      return;
+    }
+    if (entries.size() == 1) {
+      // Nothing left to keep, the records are dropped without rewriting the file
+      entries.clear();
+      recordBytes.clear();
+      garbageBytes = 0;
+      channel.truncate(FILE_HEADER_SIZE);
+      channel.position(FILE_HEADER_SIZE);
+      channel.force(false);
+      return;
+    }
+
+    int size = write(encodeRemoved(entry.uuid));
+    entries.remove(entry.uuid);
+    Long removedBytes = recordBytes.remove(entry.uuid);
+    garbageBytes += size + (removedBytes == null ? 0 : removedBytes);
+    if (garbageBytes >= GARBAGE_THRESHOLD_BYTES) {
+      compact();
+    }
+  }
+
+  /**
+   * Rewrites the journal file with only the merged saves that were not written yet, if saves were
+   * removed since it was last rewritten.
+   */
+  public synchronized void compact() throws IOException {
+    if (garbageBytes == 0) {
+      return;
+    }
+    Path compactFile = file.resolveSibling(FILE_NAME + ".compact");
+    Map<UUID, Long> compactRecordBytes = new HashMap<>();
+    try (FileChannel compactChannel = FileChannel.open(compactFile, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer fileHeader = fileHeader();
+      while (fileHeader.hasRemaining()) {
+        compactChannel.write(fileHeader);
+      }
+      for (Entry entry : entries.values()) {
+        ByteBuffer record = encode(entry);
+        compactRecordBytes.put(entry.uuid, (long) record.remaining());
+        while (record.hasRemaining()) {
+          compactChannel.write(record);
+        }
+      }
+      compactChannel.force(true);
+    }
+    channel.close();
+    try {
+      Files.move(compactFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      recordBytes.clear();
+      recordBytes.putAll(compactRecordBytes);
+      garbageBytes = 0;
+    } finally {
+      // Reopened even if the file could not be replaced, the old one is still valid
+      channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      channel.position(channel.size());
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel.close();
+  }
+
+  /** Appends the given record and forces it to disk, returning its size. */
+  private int write(ByteBuffer record) throws IOException {
+    int size = record.remaining();
+    while (record.hasRemaining()) {
+      channel.write(record);
+    }
+    channel.force(false);
+    return size;
+  }
+
+  private void load() throws IOException {
+    long size = channel.size();
+    if (size < FILE_HEADER_SIZE) {
+      // New journal, or the server crashed before the header was written
+      channel.truncate(0);
+      write(fileHeader());
+      return;
+    }
+    ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+    readFully(fileHeader, 0);
+    fileHeader.flip();
+    int magic = fileHeader.getInt();
+    int formatVersion = fileHeader.getInt();
+    if (magic != MAGIC || formatVersion != FORMAT_VERSION) {
+      throw new IOException("Unsupported save journal " + file + ", format version " + formatVersion);
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    long position = FILE_HEADER_SIZE;
+    while (position + HEADER_SIZE <= size) {
+      header.clear();
+      readFully(header, position);
+      header.flip();
+      int length = header.getInt();
+      int checksum = header.getInt();
+      if (length < 0 || position + HEADER_SIZE + length > size) {
+        break;
+      }
+      ByteBuffer payload = ByteBuffer.allocate(length);
+      readFully(payload, position + HEADER_SIZE);
+      if (checksum != checksum(payload.array())) {
+        break;
+      }
+      Entry entry = decode(payload.array());
+      long recordSize = HEADER_SIZE + length;
+      if (entry == null) {
+        UUID uuid = removedUuid(payload.array());
+        entries.remove(uuid);
+        Long removedBytes = recordBytes.remove(uuid);
+        garbageBytes += recordSize + (removedBytes == null ? 0 : removedBytes);
+      } else {
+        Entry previous = entries.get(entry.uuid);
+        entries.put(entry.uuid, previous == null ? entry : previous.merge(entry));
+        recordBytes.merge(entry.uuid, recordSize, Long::sum);
+      }
+      position += recordSize;
+    }
+
+    if (position < size) {
+      LOGGER.log(Level.WARNING, "Discarding {0} bytes of incomplete records at the end of the save journal",
+          size - position);
+      channel.truncate(position);
+    }
+    channel.position(position);
+    if (!entries.isEmpty()) {
+      LOGGER.log(Level.INFO, "Save journal contains pending saves of {0} players", entries.size());
+    }
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of the save journal");
+      }
+    }
+  }
+
+  private static ByteBuffer fileHeader() {
+    ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+    fileHeader.putInt(MAGIC).putInt(FORMAT_VERSION);
+    fileHeader.flip();
+    return fileHeader;
+  }
+
+  private static ByteBuffer encode(Entry entry) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (DataOutputStream output = new DataOutputStream(outputStream)) {
+      output.writeLong(entry.uuid.getMostSignificantBits());
+      output.writeLong(entry.uuid.getLeastSignificantBits());
+      output.writeByte(SAVE);
+      output.writeBoolean(entry.release);
+      output.writeBoolean(entry.owner != null);
+      if (entry.owner != null) {
+        output.writeUTF(entry.owner);
+      }
+      output.writeLong(entry.baseVersion);
+      output.writeInt(entry.values.size());
+      for (Map.Entry<String, byte[]> value : entry.values.entrySet()) {
+        output.writeUTF(value.getKey());
+        output.writeInt(value.getValue().length);
+        output.write(value.getValue());
+      }
+    }
+    return frame(outputStream.toByteArray());
+  }
+
+  private static ByteBuffer encodeRemoved(UUID uuid) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (DataOutputStream output = new DataOutputStream(outputStream)) {
+      output.writeLong(uuid.getMostSignificantBits());
+      output.writeLong(uuid.getLeastSignificantBits());
+      output.writeByte(REMOVED);
+    }
+    return frame(outputStream.toByteArray());
+  }
+
+  /** @return the decoded save, or {@code null} if the record marks the saves of a player as removed. */
+  @Nullable
+  private static Entry decode(byte[] payload) throws IOException {
+    try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload))) {
+      UUID uuid = new UUID(input.readLong(), input.readLong());
+      byte kind = input.readByte();
+      if (kind == REMOVED) {
+        return null;
+      }
+      if (kind != SAVE) {
+        throw new IOException("Unknown kind of record " + kind + " in the save journal");
+      }
+      boolean release = input.readBoolean();
+      String owner = input.readBoolean() ? input.readUTF() : null;
+      long baseVersion = input.readLong();
+      int valueCount = input.readInt();
+      ImmutableMap.Builder<String, byte[]> values = ImmutableMap.builder();
+      for (int i = 0; i < valueCount; i++) {
+        String table = input.readUTF();
+        byte[] data = new byte[input.readInt()];
+        input.readFully(data);
+        values.put(table, data);
+      }
+      return new Entry(uuid, values.build(), release, owner, baseVersion);
+    }
+  }
+
+  private static ByteBuffer frame(byte[] payload) {
+    ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+    record.putInt(payload.length).putInt(checksum(payload)).put(payload);
+    record.flip();
+    return record;
+  }
+
+  private static UUID removedUuid(byte[] payload) {
+    ByteBuffer buffer = ByteBuffer.wrap(payload);
+    return new UUID(buffer.getLong(), buffer.getLong());
+  }
+
+  private static int checksum(byte[] payload) {
+    CRC32 crc32 = new CRC32();
+    crc32.update(payload, 0, payload.length);
+    return (int) crc32.getValue();
+  }
+}
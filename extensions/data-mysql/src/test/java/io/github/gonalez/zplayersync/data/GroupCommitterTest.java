@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class GroupCommitterTest {
+  private final List<List<UUID>> batches = Collections.synchronizedList(new ArrayList<>());
+  private GroupCommitter groupCommitter;
+
+  @AfterEach
+  public void tearDown() {
+    groupCommitter.close();
+  }
+
+  @Test
+  public void writesTheSavesOfTheWindowInOneBatch() throws Exception {
+    groupCommitter = new GroupCommitter(this::record, 50, 32);
+    UUID first = UUID.randomUUID(), second = UUID.randomUUID();
+    CompletableFuture.allOf(
+        groupCommitter.submit(first, ImmutableMap.of(), false),
+        groupCommitter.submit(second, ImmutableMap.of(), true))
+        .get(5, TimeUnit.SECONDS);
+
+    assertEquals(Collections.singletonList(List.of(first, second)), batches);
+  }
+
+  @Test
+  public void failsTheSavesSubmittedOnceClosed() {
+    groupCommitter = new GroupCommitter(this::record, 50, 32);
+    groupCommitter.close();
+    UUID uuid = UUID.randomUUID();
+
+    CompletableFuture<Void> future = groupCommitter.submit(uuid, ImmutableMap.of(), true);
+
+    ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+    assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    // Not left pending, so loading the player does not wait for it forever
+    groupCommitter.awaitPendingSave(uuid);
+    assertTrue(batches.isEmpty());
+  }
+
+  @Test
+  public void writesThePendingSavesWhenClosed() throws Exception {
+    groupCommitter = new GroupCommitter(this::record, TimeUnit.MINUTES.toMillis(1), 32);
+    CompletableFuture<Void> future = groupCommitter.submit(UUID.randomUUID(), ImmutableMap.of(), true);
+
+    groupCommitter.close();
+
+    future.get(5, TimeUnit.SECONDS);
+    assertEquals(1, batches.size());
+  }
+
+  @Test
+  public void failsOnlyTheSavesThatCannotBeWritten() throws Exception {
+    UUID failing = UUID.randomUUID(), other = UUID.randomUUID();
+    groupCommitter = new GroupCommitter(saves -> {
+      for (GroupCommitter.PendingSave save : saves) {
+        if (save.uuid.equals(failing)) {
+          throw new SQLException("Write failed");
+        }
+      }
+      record(saves);
+    }, 50, 32);
+    CompletableFuture<Void> failingFuture = groupCommitter.submit(failing, ImmutableMap.of(), false);
+    CompletableFuture<Void> otherFuture = groupCommitter.submit(other, ImmutableMap.of(), false);
+
+    otherFuture.get(5, TimeUnit.SECONDS);
+    assertThrows(ExecutionException.class, () -> failingFuture.get(5, TimeUnit.SECONDS));
+    assertEquals(Collections.singletonList(List.of(other)), batches);
+    assertEquals(2, groupCommitter.getFallbackCount());
+  }
+
+  private void record(List<GroupCommitter.PendingSave> saves) {
+    List<UUID> batch = new ArrayList<>();
+    for (GroupCommitter.PendingSave save : saves) {
+      batch.add(save.uuid);
+    }
+    batches.add(batch);
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+public class PooledConnectionFactoryTest {
+  private Connection connection;
+  private PooledConnectionFactory connectionFactory;
+
+  @BeforeEach
+  public void setUp() throws SQLException {
+    connection = mock(Connection.class);
+    when(connection.getAutoCommit()).thenReturn(true);
+    when(connection.prepareStatement(anyString()))
+        .thenAnswer(invocation -> mock(PreparedStatement.class));
+    connectionFactory = new PooledConnectionFactory(() -> connection, 2, 8, 1000, 60_000);
+  }
+
+  @Test
+  public void doesNotRollBackConnectionsWithoutPendingWork() throws SQLException {
+    try (Connection pooled = connectionFactory.create()) {
+      pooled.prepareStatement("SELECT 1").executeQuery();
+    }
+    try (Connection pooled = connectionFactory.create()) {
+      pooled.setAutoCommit(false);
+      pooled.prepareStatement("SELECT 1").executeQuery();
+      pooled.commit();
+    }
+    verify(connection, never()).rollback();
+  }
+
+  @Test
+  public void rollsBackUncommittedWorkWhenReleased() throws SQLException {
+    try (Connection pooled = connectionFactory.create()) {
+      pooled.setAutoCommit(false);
+      pooled.prepareStatement("UPDATE t SET a = 1").executeUpdate();
+    }
+    verify(connection, times(1)).rollback();
+
+    // The connection is clean again for its next user
+    try (Connection pooled = connectionFactory.create()) {
+      pooled.commit();
+    }
+    verify(connection, times(1)).rollback();
+  }
+
+  @Test
+  public void failsToCreateConnectionsOnceClosed() throws SQLException {
+    connectionFactory.close();
+    assertTrue(connectionFactory.isClosed());
+    assertThrows(SQLException.class, connectionFactory::create);
+  }
+}
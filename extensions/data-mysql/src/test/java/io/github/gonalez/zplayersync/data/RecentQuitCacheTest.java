@@ -0,0 +1,93 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+public class RecentQuitCacheTest {
+  private static final ImmutableMap<String, byte[]> VALUES = ImmutableMap.of("health", new byte[]{1, 2, 3});
+  private static final ImmutableMap<String, Long> FINGERPRINTS = ImmutableMap.of("health", 42L);
+
+  private final RecentQuitCache cache = new RecentQuitCache(100, 60_000);
+
+  @Test
+  public void takesTheValuesOfTheWrittenVersion() {
+    UUID uuid = UUID.randomUUID();
+    cache.recordWrite(uuid, 7);
+    cache.put(uuid, VALUES, FINGERPRINTS);
+
+    RecentQuitCache.CachedPlayer cachedPlayer = cache.take(uuid, 7);
+    assertNotNull(cachedPlayer);
+    assertEquals(7, cachedPlayer.version);
+    assertArrayEquals(VALUES.get("health"), cachedPlayer.values.get("health"));
+    assertEquals(FINGERPRINTS, cachedPlayer.fingerprints);
+    assertEquals(1, cache.getHitCount());
+    // Entries are used at most once
+    assertNull(cache.take(uuid, 7));
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void missesIfAnotherServerSavedThePlayer() {
+    UUID uuid = UUID.randomUUID();
+    cache.recordWrite(uuid, 7);
+    cache.put(uuid, VALUES, FINGERPRINTS);
+
+    assertNull(cache.take(uuid, 8));
+    assertEquals(0, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    // The stale entry is dropped
+    assertNull(cache.take(uuid, 7));
+  }
+
+  @Test
+  public void keepsNothingWithoutAWrittenSave() {
+    UUID uuid = UUID.randomUUID();
+    cache.put(uuid, VALUES, FINGERPRINTS);
+
+    assertNull(cache.take(uuid, 0));
+  }
+
+  @Test
+  public void keepsNothingOnceTheWriteIsForgotten() {
+    UUID uuid = UUID.randomUUID();
+    cache.recordWrite(uuid, 7);
+    cache.forgetWrite(uuid);
+    cache.put(uuid, VALUES, FINGERPRINTS);
+
+    assertNull(cache.take(uuid, 7));
+  }
+
+  @Test
+  public void usesTheVersionOfTheLastWriteOnlyOnce() {
+    UUID uuid = UUID.randomUUID();
+    cache.recordWrite(uuid, 7);
+    cache.put(uuid, VALUES, FINGERPRINTS);
+    assertNotNull(cache.take(uuid, 7));
+
+    // Left again without a new save being written
+    cache.put(uuid, VALUES, FINGERPRINTS);
+    assertNull(cache.take(uuid, 7));
+  }
+}
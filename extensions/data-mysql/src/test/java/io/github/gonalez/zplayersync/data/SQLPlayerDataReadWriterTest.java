@@ -0,0 +1,305 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import io.github.gonalez.zplayersync.serializer.BinaryObjectSerializer;
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class SQLPlayerDataReadWriterTest {
+  private static final BinaryObjectSerializer<String> STRING_SERIALIZER = new BinaryObjectSerializer<String>() {
+    @Override
+    public byte[] serializeBytes(String value) {
+      return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String deserializeBytes(byte[] data) {
+      return new String(data, StandardCharsets.UTF_8);
+    }
+  };
+
+  @TempDir
+  Path directory;
+
+  private final String url = "jdbc:h2:mem:zplayersync-" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+  private final PlayerValueRegistry registry = new PlayerValueRegistry();
+  private final Map<Class<?>, BinaryObjectSerializer<?>> serializers = new ConcurrentHashMap<>();
+  private final UUID uuid = UUID.randomUUID();
+  private final List<TestReadWriter> readWriters = new ArrayList<>();
+  private final List<SaveJournal> journals = new ArrayList<>();
+  private volatile boolean unreachable;
+  private Player player;
+  private PlayerValueKey<String> name;
+
+  @BeforeEach
+  public void setUp() {
+    player = mock(Player.class);
+    when(player.getUniqueId()).thenReturn(uuid);
+    name = registry.register(new TestValueApi("name"));
+    serializers.put(String.class, STRING_SERIALIZER);
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    for (TestReadWriter readWriter : readWriters) {
+      readWriter.close();
+    }
+    for (SaveJournal journal : journals) {
+      journal.close();
+    }
+  }
+
+  @Test
+  public void bindsValuesRegisteredLaterOnceThePlanIsRebuilt() {
+    TestReadWriter readWriter = newReadWriter("server-1", null);
+    // Builds the plan with the values registered so far
+    readWriter.read(uuid);
+    PlayerValueKey<String> title = registry.register(new TestValueApi("title"));
+    name.valueApi().set(player, "Steve");
+    title.valueApi().set(player, "Builder");
+
+    readWriter.write(uuid);
+    assertNull(readWriter.read(uuid).get(title));
+
+    readWriter.rebuildSyncPlan();
+    readWriter.write(uuid);
+    PlayerSnapshot snapshot = readWriter.read(uuid);
+    assertEquals("Steve", snapshot.get(name));
+    assertEquals("Builder", snapshot.get(title));
+  }
+
+  @Test
+  public void bindsSerializersRegisteredLaterOnceThePlanIsRebuilt() {
+    serializers.remove(String.class);
+    TestReadWriter readWriter = newReadWriter("server-1", null);
+    readWriter.read(uuid);
+    name.valueApi().set(player, "Steve");
+
+    serializers.put(String.class, STRING_SERIALIZER);
+    readWriter.write(uuid);
+    assertFalse(readWriter.read(uuid).contains(name));
+
+    readWriter.rebuildSyncPlan();
+    readWriter.write(uuid);
+    assertEquals("Steve", readWriter.read(uuid).get(name));
+  }
+
+  @Test
+  public void forgetsThePlayerWhenItsQuitSaveFailsToSerialize() {
+    serializers.put(String.class, new BinaryObjectSerializer<String>() {
+      @Override
+      public byte[] serializeBytes(String value) {
+        if (value.isEmpty()) {
+          throw new IllegalArgumentException("Empty value");
+        }
+        return STRING_SERIALIZER.serializeBytes(value);
+      }
+
+      @Override
+      public String deserializeBytes(byte[] data) {
+        return STRING_SERIALIZER.deserializeBytes(data);
+      }
+    });
+    TestReadWriter readWriter = newReadWriter("server-1", null);
+    readWriter.read(uuid);
+    name.valueApi().set(player, "Steve");
+    readWriter.write(uuid);
+
+    name.valueApi().set(player, "");
+    assertThrows(IllegalArgumentException.class, () -> readWriter.captureQuitWrite(uuid).run());
+
+    // Rejoined, the values it had when it left are not known to be stored anymore
+    name.valueApi().set(player, "Steve");
+    readWriter.write(uuid);
+    assertEquals(2, readWriter.getSaveCount(SaveResult.FULL));
+    assertEquals(0, readWriter.getSaveCount(SaveResult.SKIPPED));
+  }
+
+  @Test
+  public void replaysTheJournalAfterRestartingWithAnotherId() throws IOException {
+    journalSaveAndCrash("server-1", "Alex");
+
+    // Restarted without a configured id, the lease of the previous id did not expire yet
+    SaveJournal journal = openJournal();
+    newReadWriter("server-2", journal);
+
+    assertTrue(journal.isEmpty());
+    assertEquals("Alex", newReadWriter("server-3", null).read(uuid).get(name));
+  }
+
+  @Test
+  public void discardsTheJournaledSaveOnceAnotherServerSaved() throws IOException {
+    journalSaveAndCrash("server-1", "Alex");
+
+    // Taken over by another server once the lease of the crashed server expired
+    TestReadWriter otherServer = newReadWriter("server-3", null);
+    otherServer.read(uuid);
+    name.valueApi().set(player, "Bob");
+    otherServer.write(uuid);
+    otherServer.release(uuid);
+
+    SaveJournal journal = openJournal();
+    newReadWriter("server-2", journal);
+
+    assertTrue(journal.isEmpty());
+    assertEquals("Bob", newReadWriter("server-4", null).read(uuid).get(name));
+  }
+
+  @Test
+  public void keepsTheJournaledSaveWhileAnotherServerOwnsThePlayer() throws IOException {
+    journalSaveAndCrash("server-1", "Alex");
+
+    // Loaded by another server that did not save it yet
+    newReadWriter("server-3", null).read(uuid);
+
+    SaveJournal journal = openJournal();
+    newReadWriter("server-2", journal);
+
+    SaveJournal.Entry entry = journal.get(uuid);
+    assertNotNull(entry);
+    assertEquals("server-1", entry.getOwner());
+  }
+
+  /**
+   * Loads the player on a server that cannot write its next save, which is kept in the journal, and
+   * stops the server without releasing the player.
+   */
+  private void journalSaveAndCrash(String serverId, String value) throws IOException {
+    SaveJournal journal = openJournal();
+    TestReadWriter readWriter = newReadWriter(serverId, journal);
+    readWriter.read(uuid);
+    name.valueApi().set(player, value);
+
+    unreachable = true;
+    readWriter.write(uuid);
+    unreachable = false;
+
+    journals.remove(journal);
+    journal.close();
+  }
+
+  private SaveJournal openJournal() throws IOException {
+    SaveJournal journal = new SaveJournal(directory);
+    journals.add(journal);
+    return journal;
+  }
+
+  private TestReadWriter newReadWriter(String serverId, @Nullable SaveJournal journal) {
+    TestReadWriter readWriter = new TestReadWriter(new PlayerHandoff(serverId, 60, 100), journal);
+    readWriters.add(readWriter);
+    readWriter.open();
+    return readWriter;
+  }
+
+  private class TestReadWriter extends SQLPlayerDataReadWriter {
+    @Nullable
+    private final SaveJournal journal;
+
+    TestReadWriter(PlayerHandoff handoff, @Nullable SaveJournal journal) {
+      super(() -> {
+        if (unreachable) {
+          throw new SQLException("The database is unreachable");
+        }
+        return DriverManager.getConnection(url);
+      }, new PlayerDataSchema(), handoff);
+      this.journal = journal;
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    protected <T> BinaryObjectSerializer<T> findSerializerOfType(Class<T> type) {
+      return (BinaryObjectSerializer<T>) serializers.get(type);
+    }
+
+    @Override
+    protected ImmutableList<PlayerValueKey<?>> providePlayerValues() {
+      return registry.keys();
+    }
+
+    @Nullable
+    @Override
+    protected SaveJournal saveJournal() {
+      return journal;
+    }
+
+    @Override
+    protected long leaseRenewalIntervalMillis() {
+      return 0;
+    }
+
+    @Override
+    public Player getPlayer(UUID uuid) {
+      return uuid.equals(player.getUniqueId()) ? player : null;
+    }
+  }
+
+  /** Value of the players kept in memory, keyed by their uuid. */
+  private static class TestValueApi implements PlayerDataApi<String> {
+    private final String identifier;
+    private final Map<UUID, String> values = new ConcurrentHashMap<>();
+
+    TestValueApi(String identifier) {
+      this.identifier = identifier;
+    }
+
+    @Override
+    public Class<String> type() {
+      return String.class;
+    }
+
+    @Override
+    public String identifier() {
+      return identifier;
+    }
+
+    @Override
+    public String read(Player input) {
+      return values.get(input.getUniqueId());
+    }
+
+    @Override
+    public void set(Player input, String value) {
+      values.put(input.getUniqueId(), value);
+    }
+  }
+}
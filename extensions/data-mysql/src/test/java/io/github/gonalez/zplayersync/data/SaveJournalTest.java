@@ -0,0 +1,175 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.data;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+public class SaveJournalTest {
+  private static final String OWNER = "server-1";
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void mergesTheSavesOfAPlayer() throws IOException {
+    UUID uuid = UUID.randomUUID();
+    try (SaveJournal journal = new SaveJournal(directory)) {
+      journal.append(uuid, ImmutableMap.of("health", bytes(1), "food", bytes(2)), false, OWNER, 7);
+      // Appended by the next server with the same journal, none of the saves were written
+      journal.append(uuid, ImmutableMap.of("health", bytes(3)), true, "server-2", 7);
+    }
+
+    try (SaveJournal journal = new SaveJournal(directory)) {
+      SaveJournal.Entry entry = journal.get(uuid);
+      assertArrayEquals(bytes(3), entry.getValues().get("health"));
+      assertArrayEquals(bytes(2), entry.getValues().get("food"));
+      assertTrue(entry.isRelease());
+      assertEquals(OWNER, entry.getOwner());
+      assertEquals(7, entry.getBaseVersion());
+    }
+  }
+
+  @Test
+  public void keepsSavesWithoutOwnerOrVersion() throws IOException {
+    UUID uuid = UUID.randomUUID();
+    try (SaveJournal journal = new SaveJournal(directory)) {
+      journal.append(uuid, ImmutableMap.of("health", bytes(1)), false, null, SaveJournal.UNKNOWN_VERSION);
+    }
+
+    try (SaveJournal journal = new SaveJournal(directory)) {
+      SaveJournal.Entry entry = journal.get(uuid);
+      assertNull(entry.getOwner());
+      assertEquals(SaveJournal.UNKNOWN_VERSION, entry.getBaseVersion());
+    }
+  }
+
+  @Test
+  public void rejectsAnUnsupportedFormat() throws IOException {
+    Files.write(journalFile(), new byte[]{'Z', 'P', 'S', 'J', 0, 0, 0, 99});
+
+    assertThrows(IOException.class, () -> new SaveJournal(directory));
+  }
+
+  @Test
+  public void keepsRemovalsWithoutRewritingTheFile() throws IOException {
+    UUID removed = UUID.randomUUID(), kept = UUID.randomUUID();
+    try (SaveJournal journal = new SaveJournal(directory)) {
+      journal.append(removed, ImmutableMap.of("health", bytes(1)), true, OWNER, 7);
+      journal.append(kept, ImmutableMap.of("health", bytes(2)), true, OWNER, 7);
+      long size = Files.size(journalFile());
+
+      journal.remove(journal.get(removed));
+
+      // Only the removal is appended
+      assertTrue(Files.size(journalFile()) > size);
+      assertFalse(journal.hasPending(removed));
+    }
+
+    try (SaveJournal journal = new SaveJournal(directory)) {
+      assertNull(journal.get(removed));
+      assertArrayEquals(bytes(2), journal.get(kept).getValues().get("health"));
+    }
+  }
+
+  @Test
+  public void compactsTheFileWithOnlyThePendingSaves() throws IOException {
+    UUID removed = UUID.randomUUID(), kept = UUID.randomUUID();
+    try (SaveJournal journal = new SaveJournal(directory)) {
+      journal.append(kept, ImmutableMap.of("health", bytes(2)), true, OWNER, 7);
+      long keptSize = Files.size(journalFile());
+      for (int i = 0; i < 10; i++) {
+        journal.append(removed, ImmutableMap.of("inventory", new byte[1024]), false, OWNER, 7);
+      }
+      journal.remove(journal.get(removed));
+
+      journal.compact();
+
+      assertEquals(keptSize, Files.size(journalFile()));
+      // Still appendable after the file was replaced
+      journal.append(removed, ImmutableMap.of("health", bytes(4)), true, OWNER, 7);
+    }
+
+    try (SaveJournal journal = new SaveJournal(directory)) {
+      assertEquals(2, journal.entries().size());
+      assertArrayEquals(bytes(4), journal.get(removed).getValues().get("health"));
+    }
+  }
+
+  @Test
+  public void emptiesTheFileWhenTheLastSaveIsRemoved() throws IOException {
+    UUID uuid = UUID.randomUUID();
+    try (SaveJournal journal = new SaveJournal(directory)) {
+      journal.append(uuid, ImmutableMap.of("health", bytes(1)), true, OWNER, 7);
+      journal.remove(journal.get(uuid));
+
+      assertTrue(journal.isEmpty());
+      // Only the header is left
+      assertEquals(8, Files.size(journalFile()));
+    }
+  }
+
+  @Test
+  public void doesNotRemoveSavesAppendedAfterTheEntryWasObtained() throws IOException {
+    UUID uuid = UUID.randomUUID();
+    try (SaveJournal journal = new SaveJournal(directory)) {
+      journal.append(uuid, ImmutableMap.of("health", bytes(1)), false, OWNER, 7);
+      SaveJournal.Entry entry = journal.get(uuid);
+      journal.append(uuid, ImmutableMap.of("health", bytes(2)), true, OWNER, 7);
+
+      journal.remove(entry);
+
+      assertArrayEquals(bytes(2), journal.get(uuid).getValues().get("health"));
+    }
+  }
+
+  @Test
+  public void discardsAnIncompleteRecordAtTheEnd() throws IOException {
+    UUID uuid = UUID.randomUUID();
+    try (SaveJournal journal = new SaveJournal(directory)) {
+      journal.append(uuid, ImmutableMap.of("health", bytes(1)), true, OWNER, 7);
+    }
+    long size = Files.size(journalFile());
+    Files.write(journalFile(), new byte[]{0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+
+    try (SaveJournal journal = new SaveJournal(directory)) {
+      assertEquals(1, journal.entries().size());
+      assertEquals(size, Files.size(journalFile()));
+    }
+  }
+
+  private Path journalFile() {
+    return directory.resolve("saves.journal");
+  }
+
+  private static byte[] bytes(int value) {
+    return new byte[]{(byte) value};
+  }
+}
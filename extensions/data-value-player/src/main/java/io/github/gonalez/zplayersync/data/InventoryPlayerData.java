@@ -15,8 +15,10 @@
  */
 package io.github.gonalez.zplayersync.data;
 
+import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
 
 /** Data for an {@code Inventory}. */
 public class InventoryPlayerData implements PlayerDataApi<Inventory> {
@@ -37,6 +39,19 @@ public class InventoryPlayerData implements PlayerDataApi<Inventory> {
     return input.getInventory();
   }
 
+  @Override
+  public Inventory snapshot(Player input) {
+    ItemStack[] contents = input.getInventory().getContents();
+    // Only the storage slots, inventories must have a size multiple of 9
+    Inventory inventory = Bukkit.createInventory(null, contents.length - contents.length % 9);
+    ItemStack[] snapshotContents = new ItemStack[inventory.getSize()];
+    for (int i = 0; i < snapshotContents.length; i++) {
+      snapshotContents[i] = contents[i] == null ? null : contents[i].clone();
+    }
+    inventory.setContents(snapshotContents);
+    return inventory;
+  }
+
   @Override
   public void set(Player input, Inventory inventory) {
     input.getInventory().setContents(inventory.getContents());
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.serializer;
+
+import io.github.gonalez.zplayersync.ObjectSerializerException;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.util.io.BukkitObjectInputStream;
+import org.bukkit.util.io.BukkitObjectOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of the items of an inventory.
+ *
+ * <p>The encoding starts with the {@link #MAGIC} bytes and the format version, followed by the
+ * number of slots and a bitmap of the slots that are not empty. Each material used is written
+ * once in a table and items refer to it by index. Amounts, durability and indexes are written as
+ * varints, and the item meta is only written when present.
+ */
+public final class CompactInventoryCodec {
+  /** First bytes of an encoded inventory. */
+  public static final byte[] MAGIC = {'Z', 'I'};
+
+  private static final int VERSION = 1;
+
+  private CompactInventoryCodec() {}
+
+  /** @return {@code true} if the given data starts with the {@link #MAGIC} bytes. */
+  public static boolean isEncoded(byte[] data) {
+    return data.length > MAGIC.length && data[0] == MAGIC[0] && data[1] == MAGIC[1];
+  }
+
+  /** Encodes the first {@code size} items of the given array. */
+  public static byte[] encode(ItemStack[] items, int size) throws ObjectSerializerException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64 + size * 4);
+    try (DataOutputStream output = new DataOutputStream(outputStream)) {
+      output.write(MAGIC);
+      output.writeByte(VERSION);
+      writeVarInt(output, size);
+
+      byte[] slotBitmap = new byte[(size + 7) >>> 3];
+      Map<Material, Integer> materialIndexes = new HashMap<>();
+      List<Material> materials = new ArrayList<>();
+      for (int i = 0; i < size; i++) {
+        ItemStack item = items[i];
+        if (!isEmpty(item)) {
+          slotBitmap[i >>> 3] |= 1 << (i & 7);
+          if (!materialIndexes.containsKey(item.getType())) {
+            materialIndexes.put(item.getType(), materials.size());
+            materials.add(item.getType());
+          }
+        }
+      }
+      output.write(slotBitmap);
+
+      writeVarInt(output, materials.size());
+      for (Material material : materials) {
+        output.writeUTF(material.name());
+      }
+
+      for (int i = 0; i < size; i++) {
+        ItemStack item = items[i];
+        if (isEmpty(item)) {
+          continue;
+        }
+        writeVarInt(output, materialIndexes.get(item.getType()));
+        writeVarInt(output, item.getAmount());
+        writeVarInt(output, item.getDurability() & 0xFFFF);
+        if (item.hasItemMeta()) {
+          output.writeBoolean(true);
+          byte[] meta = encodeMeta(item.getItemMeta());
+          writeVarInt(output, meta.length);
+          output.write(meta);
+        } else {
+          output.writeBoolean(false);
+        }
+      }
+    } catch (IOException e) {
+      throw new ObjectSerializerException(e);
+    }
+    return outputStream.toByteArray();
+  }
+
+  /** Decodes the items of the given data, empty slots are {@code null}. */
+  public static ItemStack[] decode(byte[] data) throws ObjectSerializerException {
+    if (!isEncoded(data)) {
+      throw new ObjectSerializerException("Not a compact encoded inventory");
+    }
+    try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(data))) {
+      input.skipBytes(MAGIC.length);
+      int version = input.readUnsignedByte();
+      if (version != VERSION) {
+        throw new ObjectSerializerException("Unsupported compact inventory version " + version);
+      }
+      int size = readVarInt(input);
+
+      byte[] slotBitmap = new byte[(size + 7) >>> 3];
+      input.readFully(slotBitmap);
+
+      Material[] materials = new Material[readVarInt(input)];
+      for (int i = 0; i < materials.length; i++) {
+        String name = input.readUTF();
+        materials[i] = Material.getMaterial(name);
+        if (materials[i] == null) {
+          throw new ObjectSerializerException("Unknown material " + name);
+        }
+      }
+
+      ItemStack[] items = new ItemStack[size];
+      for (int i = 0; i < size; i++) {
+        if ((slotBitmap[i >>> 3] & (1 << (i & 7))) == 0) {
+          continue;
+        }
+        Material material = materials[readVarInt(input)];
+        int amount = readVarInt(input);
+        short durability = (short) readVarInt(input);
+        ItemStack item = new ItemStack(material, amount, durability);
+        if (input.readBoolean()) {
+          byte[] meta = new byte[readVarInt(input)];
+          input.readFully(meta);
+          item.setItemMeta(decodeMeta(meta));
+        }
+        items[i] = item;
+      }
+      return items;
+    } catch (IOException e) {
+      throw new ObjectSerializerException(e);
+    }
+  }
+
+  private static boolean isEmpty(ItemStack item) {
+    return item == null || item.getType() == Material.AIR;
+  }
+
+  private static byte[] encodeMeta(ItemMeta meta) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (BukkitObjectOutputStream objectOutputStream = new BukkitObjectOutputStream(outputStream)) {
+      objectOutputStream.writeObject(meta);
+    }
+    return outputStream.toByteArray();
+  }
+
+  private static ItemMeta decodeMeta(byte[] meta) throws IOException {
+    try (BukkitObjectInputStream objectInputStream =
+             new BukkitObjectInputStream(new ByteArrayInputStream(meta))) {
+      return (ItemMeta) objectInputStream.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static void writeVarInt(DataOutput output, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      output.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    output.writeByte(value);
+  }
+
+  private static int readVarInt(DataInput input) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = input.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+}
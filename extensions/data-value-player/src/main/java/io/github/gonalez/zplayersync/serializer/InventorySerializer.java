@@ -15,6 +15,8 @@
  */
 package io.github.gonalez.zplayersync.serializer;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 import io.github.gonalez.zplayersync.ObjectSerializerException;
 import org.bukkit.Bukkit;
 import org.bukkit.inventory.Inventory;
@@ -27,29 +29,67 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Base64;
 
-/** Serializer & deserializer for bukkit inventories. */
-public class InventorySerializer implements ObjectSerializer<Inventory> {
+/**
+ * Serializer & deserializer for bukkit inventories.
+ *
+ * <p>Inventories are written in the configured {@link Format}, values in any of the formats are
+ * read, including values that were stored as Base64 text by older versions.
+ */
+public class InventorySerializer implements BinaryObjectSerializer<Inventory> {
+  // First bytes of a java serialization stream
+  private static final byte STREAM_MAGIC_0 = (byte) 0xAC, STREAM_MAGIC_1 = (byte) 0xED;
+
+  /** Formats in which inventories can be written. */
+  public enum Format {
+    /** Java serialization of every item, the format of older versions. */
+    LEGACY,
+    /** The {@link CompactInventoryCodec} encoding. */
+    COMPACT,
+  }
+
+  private final Format format;
+
+  public InventorySerializer(Format format) {
+    this.format = checkNotNull(format);
+  }
+
+  public InventorySerializer() {
+    this(Format.COMPACT);
+  }
 
   @Override
-  public String serialize(Inventory value) {
+  public byte[] serializeBytes(Inventory value) {
     int invSize = value.getSize();
     if (invSize % 9 != 0) invSize-=5;
-    try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-         BukkitObjectOutputStream outputStream1 = new BukkitObjectOutputStream(outputStream)) {
+    if (format == Format.COMPACT) {
+      return CompactInventoryCodec.encode(value.getContents(), invSize);
+    }
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (BukkitObjectOutputStream outputStream1 = new BukkitObjectOutputStream(outputStream)) {
       outputStream1.writeInt(invSize);
       ItemStack[] items = value.getContents();
       for (int i = 0; i < invSize; i++) {
         outputStream1.writeObject(items[i]);
       }
-      return Base64.getEncoder().encodeToString(outputStream.toByteArray());
     } catch (IOException e) {
       throw new ObjectSerializerException(e);
     }
+    return outputStream.toByteArray();
   }
 
   @Override
-  public Inventory deserialize(String data) {
-    try (ByteArrayInputStream inputStream = new ByteArrayInputStream(Base64.getDecoder().decode(data));
+  public Inventory deserializeBytes(byte[] data) {
+    if (CompactInventoryCodec.isEncoded(data)) {
+      ItemStack[] items = CompactInventoryCodec.decode(data);
+      Inventory inventory = Bukkit.createInventory(null, items.length);
+      inventory.setContents(items);
+      return inventory;
+    }
+    if (data.length < 2 || data[0] != STREAM_MAGIC_0 || data[1] != STREAM_MAGIC_1) {
+      // Legacy value stored as Base64 text
+      data = Base64.getDecoder().decode(data);
+    }
+    try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
          BukkitObjectInputStream inputStream1 = new BukkitObjectInputStream(inputStream)) {
       int len = inputStream1.readInt();
       Inventory inventory = Bukkit.createInventory(null, len);
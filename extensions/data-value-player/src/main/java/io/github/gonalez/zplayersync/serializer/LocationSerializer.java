@@ -19,10 +19,11 @@ import com.google.common.base.Splitter;
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
-/** Serializer & deserializer for bukkit locations. */
-public class LocationSerializer implements ObjectSerializer<Location> {
+/** Serializer & deserializer for bukkit locations, the bytes are the UTF-8 encoded text. */
+public class LocationSerializer implements BinaryObjectSerializer<Location> {
 
   private static final char SPLIT_CH = ':';
   private static final Splitter SPLITTER = Splitter.on(SPLIT_CH);
@@ -54,4 +55,14 @@ public class LocationSerializer implements ObjectSerializer<Location> {
         Float.parseFloat(splitJsonToList.get(4)),
         Float.parseFloat(splitJsonToList.get(5)));
   }
+
+  @Override
+  public byte[] serializeBytes(Location value) {
+    return serialize(value).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public Location deserializeBytes(byte[] data) {
+    return deserialize(new String(data, StandardCharsets.UTF_8));
+  }
 }
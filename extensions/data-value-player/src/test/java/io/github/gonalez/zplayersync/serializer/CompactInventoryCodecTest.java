@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.serializer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.github.gonalez.zplayersync.ObjectSerializerException;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+public class CompactInventoryCodecTest {
+
+  @BeforeAll
+  public static void setUp() {
+    TestInventories.installServer();
+  }
+
+  @Test
+  public void roundTripsItemsAndEmptySlots() {
+    ItemStack[] items = new ItemStack[36];
+    items[0] = new ItemStack(Material.DIAMOND_SWORD, 1, (short) 120);
+    items[7] = new ItemStack(Material.AIR);
+    items[8] = new ItemStack(Material.COOKED_BEEF, 12);
+    items[35] = new ItemStack(Material.TORCH, 64);
+
+    ItemStack[] decoded = CompactInventoryCodec.decode(CompactInventoryCodec.encode(items, 36));
+
+    assertEquals(36, decoded.length);
+    assertItem(Material.DIAMOND_SWORD, 1, 120, decoded[0]);
+    assertItem(Material.COOKED_BEEF, 12, 0, decoded[8]);
+    assertItem(Material.TORCH, 64, 0, decoded[35]);
+    for (int i : new int[]{1, 6, 7, 9, 34}) {
+      // Air is stored as an empty slot
+      assertNull(decoded[i], "slot " + i);
+    }
+  }
+
+  @Test
+  public void encodesAnEmptyInventory() {
+    byte[] data = CompactInventoryCodec.encode(new ItemStack[27], 27);
+
+    assertTrue(CompactInventoryCodec.isEncoded(data));
+    ItemStack[] decoded = CompactInventoryCodec.decode(data);
+    assertEquals(27, decoded.length);
+    assertTrue(Arrays.stream(decoded).allMatch(item -> item == null));
+  }
+
+  @Test
+  public void writesEveryMaterialOnceInTheTable() {
+    ItemStack[] items = new ItemStack[9];
+    for (int i = 0; i < 8; i++) {
+      items[i] = new ItemStack(Material.COBBLESTONE, i + 1);
+    }
+    items[8] = new ItemStack(Material.DIRT);
+
+    byte[] data = CompactInventoryCodec.encode(items, 9);
+
+    assertEquals(1, occurrences(data, Material.COBBLESTONE.name().getBytes(UTF_8)));
+    assertEquals(1, occurrences(data, Material.DIRT.name().getBytes(UTF_8)));
+    ItemStack[] decoded = CompactInventoryCodec.decode(data);
+    for (int i = 0; i < 8; i++) {
+      assertItem(Material.COBBLESTONE, i + 1, 0, decoded[i]);
+    }
+    assertItem(Material.DIRT, 1, 0, decoded[8]);
+  }
+
+  @Test
+  public void roundTripsStackSizesAboveTheLimit() {
+    ItemStack[] items = {
+        new ItemStack(Material.ARROW, 65),
+        new ItemStack(Material.ARROW, 128),
+        new ItemStack(Material.DIAMOND, 1000),
+    };
+
+    ItemStack[] decoded = CompactInventoryCodec.decode(CompactInventoryCodec.encode(items, 3));
+
+    assertItem(Material.ARROW, 65, 0, decoded[0]);
+    assertItem(Material.ARROW, 128, 0, decoded[1]);
+    assertItem(Material.DIAMOND, 1000, 0, decoded[2]);
+  }
+
+  @Test
+  public void onlyEncodesTheGivenNumberOfSlots() {
+    ItemStack[] items = new ItemStack[41];
+    items[3] = new ItemStack(Material.LOG, 16);
+    items[40] = new ItemStack(Material.BOW);
+
+    ItemStack[] decoded = CompactInventoryCodec.decode(CompactInventoryCodec.encode(items, 36));
+
+    assertEquals(36, decoded.length);
+    assertItem(Material.LOG, 16, 0, decoded[3]);
+  }
+
+  @Test
+  public void rejectsDataOfOtherFormats() {
+    assertFalse(CompactInventoryCodec.isEncoded(new byte[]{(byte) 0xAC, (byte) 0xED, 0, 5}));
+    assertThrows(ObjectSerializerException.class,
+        () -> CompactInventoryCodec.decode(new byte[]{(byte) 0xAC, (byte) 0xED, 0, 5}));
+  }
+
+  static void assertItem(Material type, int amount, int durability, ItemStack item) {
+    assertNotNull(item);
+    assertEquals(type, item.getType());
+    assertEquals(amount, item.getAmount());
+    assertEquals(durability, item.getDurability());
+  }
+
+  private static int occurrences(byte[] data, byte[] part) {
+    int count = 0;
+    for (int i = 0; i + part.length <= data.length; i++) {
+      if (Arrays.equals(Arrays.copyOfRange(data, i, i + part.length), part)) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.serializer;
+
+import static io.github.gonalez.zplayersync.serializer.CompactInventoryCodecTest.assertItem;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+public class InventorySerializerTest {
+
+  @BeforeAll
+  public static void setUp() {
+    TestInventories.installServer();
+  }
+
+  @Test
+  public void roundTripsInTheCompactFormat() {
+    InventorySerializer serializer = new InventorySerializer();
+
+    byte[] data = serializer.serializeBytes(sampleInventory());
+
+    assertTrue(CompactInventoryCodec.isEncoded(data));
+    assertSampleInventory(serializer.deserializeBytes(data));
+  }
+
+  @Test
+  public void readsTheLegacyFormat() {
+    byte[] data = new InventorySerializer(InventorySerializer.Format.LEGACY)
+        .serializeBytes(sampleInventory());
+
+    assertFalse(CompactInventoryCodec.isEncoded(data));
+    // Values written by older versions are read by a serializer writing the compact format
+    assertSampleInventory(new InventorySerializer().deserializeBytes(data));
+  }
+
+  @Test
+  public void readsTheLegacyFormatStoredAsBase64() {
+    byte[] data = new InventorySerializer(InventorySerializer.Format.LEGACY)
+        .serializeBytes(sampleInventory());
+
+    assertSampleInventory(
+        new InventorySerializer().deserializeBytes(Base64.getEncoder().encode(data)));
+  }
+
+  @Test
+  public void leavesOutTheArmorSlotsOfPlayerInventories() {
+    Inventory inventory = TestInventories.create(41);
+    inventory.setItem(0, new ItemStack(Material.STONE, 3));
+    inventory.setItem(38, new ItemStack(Material.IRON_PICKAXE));
+
+    for (InventorySerializer.Format format : InventorySerializer.Format.values()) {
+      InventorySerializer serializer = new InventorySerializer(format);
+      Inventory deserialized = serializer.deserializeBytes(serializer.serializeBytes(inventory));
+      assertEquals(36, deserialized.getSize(), format.name());
+      assertItem(Material.STONE, 3, 0, deserialized.getItem(0));
+    }
+  }
+
+  private static Inventory sampleInventory() {
+    Inventory inventory = TestInventories.create(36);
+    inventory.setItem(0, new ItemStack(Material.DIAMOND_SWORD, 1, (short) 42));
+    inventory.setItem(1, new ItemStack(Material.AIR));
+    inventory.setItem(9, new ItemStack(Material.ARROW, 100));
+    inventory.setItem(35, new ItemStack(Material.WATER_BUCKET));
+    return inventory;
+  }
+
+  private static void assertSampleInventory(Inventory inventory) {
+    assertEquals(36, inventory.getSize());
+    assertItem(Material.DIAMOND_SWORD, 1, 42, inventory.getItem(0));
+    assertItem(Material.ARROW, 100, 0, inventory.getItem(9));
+    assertItem(Material.WATER_BUCKET, 1, 0, inventory.getItem(35));
+    assertNull(inventory.getItem(2));
+    assertNull(inventory.getItem(34));
+  }
+}
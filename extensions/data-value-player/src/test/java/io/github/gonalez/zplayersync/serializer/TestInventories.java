@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022 - Gaston Gonzalez (Gonalez). and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.gonalez.zplayersync.serializer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemFactory;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Objects;
+
+/** Inventories backed by an array, and a server that creates them, for the serializer tests. */
+final class TestInventories {
+  private TestInventories() {}
+
+  /** Installs a server that creates inventories with {@link #create(int)}, if none is installed. */
+  static synchronized void installServer() {
+    if (Bukkit.getServer() != null) {
+      return;
+    }
+    ItemFactory itemFactory = mock(ItemFactory.class);
+    when(itemFactory.equals(any(), any())).thenAnswer(invocation ->
+        Objects.equals(invocation.getArgument(0), invocation.getArgument(1)));
+
+    Server server = mock(Server.class);
+    when(server.getItemFactory()).thenReturn(itemFactory);
+    when(server.createInventory(isNull(), anyInt()))
+        .thenAnswer(invocation -> create(invocation.getArgument(1)));
+    Bukkit.setServer(server);
+  }
+
+  /** Creates an empty inventory of the given size. */
+  static Inventory create(int size) {
+    ItemStack[] contents = new ItemStack[size];
+    Inventory inventory = mock(Inventory.class);
+    when(inventory.getSize()).thenReturn(size);
+    when(inventory.getContents()).thenAnswer(invocation -> contents.clone());
+    when(inventory.getItem(anyInt()))
+        .thenAnswer(invocation -> contents[invocation.<Integer>getArgument(0)]);
+    doAnswer(invocation -> {
+      contents[invocation.<Integer>getArgument(0)] = invocation.getArgument(1);
+      return null;
+    }).when(inventory).setItem(anyInt(), any());
+    doAnswer(invocation -> {
+      ItemStack[] items = invocation.getArgument(0);
+      System.arraycopy(items, 0, contents, 0, items.length);
+      return null;
+    }).when(inventory).setContents(any());
+    return inventory;
+  }
+}